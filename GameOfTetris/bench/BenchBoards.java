@@ -0,0 +1,36 @@
+import org.openjdk.jmh.annotations.Scope;
+
+/**
+ * The corpus of SIZE boards every JMH benchmark plays on, those
+ * BenchCorpus.boards plays from BenchCorpus.SEED.
+ *
+ * Benchmarks take the corpus as a parameter, one per thread, and cycle
+ * through the boards with next() or nextIndex(), so no single board is
+ * learned by the branch predictor or left hot in a cache.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+public class BenchBoards {
+    // a power of two, see nextIndex()
+    public static final int SIZE = 64;
+
+    private final State[] states;
+    private int cursor = 0;
+
+    public BenchBoards() {
+        states = BenchCorpus.boards(BenchCorpus.SEED, SIZE);
+    }
+
+    // the next board of the corpus, in a fixed order
+    public State next() {
+        return states[nextIndex()];
+    }
+
+    // the index of the next board, for benchmarks that keep data per board
+    public int nextIndex() {
+        return cursor++ & (SIZE - 1);
+    }
+
+    public State get(int i) {
+        return states[i];
+    }
+}
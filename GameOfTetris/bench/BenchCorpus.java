@@ -0,0 +1,50 @@
+/**
+ * The fixed seed, weights and mid-game boards the benchmarks play with. Each
+ * board is reached by a seeded game of PlayerSkeletonOneLayer with the
+ * trained weights, stopped after a number of turns that varies from board to
+ * board, so a corpus covers low and high stacks. The same seed always gives
+ * the same boards and the same next pieces.
+ *
+ * It needs no JMH, so MacroBenchmark builds without it; the JMH benchmarks
+ * take it through BenchBoards.
+ */
+public final class BenchCorpus {
+    public static final long SEED = 20160415L;
+    public static final int MIN_TURNS = 50;
+    public static final int MAX_TURNS = 400;
+
+    // the optimal set of weights found after 20 evolutions, as in
+    // PlayerSkeleton.main
+    public static final double[] WEIGHTS =
+        {1.7851855342334024, 1.4138726176225629, 0.3567297944529728, 0.6249287636118577, 0.051962392158941606,
+            0.52385888919136, 0.12090744319379954};
+
+    private BenchCorpus() {
+    }
+
+    // count boards, the i-th played from seed + i. A game lost before its
+    // turn count is replayed from the next unused seed.
+    public static State[] boards(long seed, int count) {
+        PlayerSkeletonOneLayer player = new PlayerSkeletonOneLayer(WEIGHTS);
+        State[] states = new State[count];
+        long nextSeed = seed + count;
+        for (int i = 0; i < count; i++) {
+            int turns = MIN_TURNS + (int) ((long) i * (MAX_TURNS - MIN_TURNS) / count);
+            State s = play(player, seed + i, turns);
+            while (s == null) {
+                s = play(player, nextSeed++, turns);
+            }
+            states[i] = s;
+        }
+        return states;
+    }
+
+    // the game of the given seed after turns moves, or null if it was lost
+    private static State play(PlayerSkeletonOneLayer player, long seed, int turns) {
+        State s = new State(PieceSource.seeded(seed));
+        while (!s.lost && s.getTurnNumber() < turns) {
+            s.makeMove(player.pickMove(s, s.legalMoves()));
+        }
+        return s.lost ? null : s;
+    }
+}
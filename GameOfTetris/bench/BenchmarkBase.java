@@ -0,0 +1,26 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The JMH settings the benchmarks of this directory share, inherited by each
+ * of them: average time over 5 warm-up and 5 measured iterations of a second,
+ * in one fork. A benchmark may override them, e.g. its OutputTimeUnit.
+ *
+ * The benchmarks are states of their own, per thread. The JMH State
+ * annotation is never imported, as it would hide the game State.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+public abstract class BenchmarkBase {
+}
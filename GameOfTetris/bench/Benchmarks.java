@@ -0,0 +1,25 @@
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of this directory with the gc profiler, so every
+ * result comes with its allocation rate and bytes per operation. Arguments
+ * are JMH command line options, e.g. a benchmark name regex to run only some.
+ *
+ * The benchmarks are compiled together with the game by bench/build.sh, with
+ * jmh-core and jmh-generator-annprocess 1.37 and their dependencies
+ * jopt-simple and commons-math3 from bench/lib. JMH takes no benchmarks in
+ * the default package, so the script compiles them in package gameoftetris:
+ *
+ * bench/build.sh
+ * java -cp "bench/out/classes:lib/*:bench/lib/*" gameoftetris.Benchmarks
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build())
+            .run();
+    }
+}
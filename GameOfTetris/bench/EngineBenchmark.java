@@ -0,0 +1,70 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * The move engine on the boards of BenchBoards: State.makeMove, and the
+ * TestState copying, loading and make/undo the players search with.
+ *
+ * State cannot be copied or undone, so stateMakeMove first copies the board
+ * of the next corpus state into one game and then plays the move; copyBoard
+ * is that copy alone, to subtract from it.
+ */
+public class EngineBenchmark extends BenchmarkBase {
+    // the move OneLayer picks on each board of the corpus
+    private int[][] moves;
+    private PlayerSkeleton.TestState[] testStates;
+
+    // the game moves are played on, its pieces are overwritten
+    private State game;
+    private PlayerSkeleton.TestState scratch;
+
+    @Setup
+    public void setUp(BenchBoards boards) {
+        PlayerSkeletonOneLayer player = new PlayerSkeletonOneLayer(BenchCorpus.WEIGHTS);
+        moves = new int[BenchBoards.SIZE][];
+        testStates = new PlayerSkeleton.TestState[BenchBoards.SIZE];
+        for (int i = 0; i < BenchBoards.SIZE; i++) {
+            State s = boards.get(i);
+            moves[i] = s.legalMoves()[player.pickMove(s, s.legalMoves())];
+            testStates[i] = new PlayerSkeleton.TestState(s);
+        }
+        game = new State(PieceSource.seeded(BenchCorpus.SEED));
+        scratch = new PlayerSkeleton.TestState();
+    }
+
+    @Benchmark
+    public BitBoard copyBoard(BenchBoards boards) {
+        game.getBoard().copyFrom(boards.next().getBoard());
+        return game.getBoard();
+    }
+
+    @Benchmark
+    public boolean stateMakeMove(BenchBoards boards) {
+        int i = boards.nextIndex();
+        State from = boards.get(i);
+        game.getBoard().copyFrom(from.getBoard());
+        game.lost = false;
+        game.nextPiece = from.nextPiece;
+        return game.makeMove(moves[i][State.ORIENT], moves[i][State.SLOT]);
+    }
+
+    @Benchmark
+    public PlayerSkeleton.TestState testStateCopy(BenchBoards boards) {
+        return new PlayerSkeleton.TestState(testStates[boards.nextIndex()]);
+    }
+
+    @Benchmark
+    public PlayerSkeleton.TestState testStateLoad(BenchBoards boards) {
+        scratch.load(boards.next());
+        return scratch;
+    }
+
+    @Benchmark
+    public boolean testStateMakeUndo(BenchBoards boards) {
+        int i = boards.nextIndex();
+        PlayerSkeleton.TestState state = testStates[i];
+        boolean alive = state.makeMove(boards.get(i).nextPiece, moves[i][State.ORIENT], moves[i][State.SLOT]);
+        state.undoMove();
+        return alive;
+    }
+}
@@ -0,0 +1,61 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * The board features on the boards of BenchBoards. PlayerSkeleton reads every
+ * feature from the one vector Features.extract fills, so extract is the cost
+ * of all of them together; its public views, pitDepthValue and
+ * meanHeightDiffValue, include an extract each. The BitBoard getters are the
+ * features the move kernel keeps up to date incrementally.
+ */
+public class FeatureBenchmark extends BenchmarkBase {
+    private PlayerSkeleton.TestState[] testStates;
+    private PlayerSkeleton player;
+    private final double[] features = new double[Features.COUNT];
+
+    @Setup
+    public void setUp(BenchBoards boards) {
+        testStates = new PlayerSkeleton.TestState[BenchBoards.SIZE];
+        for (int i = 0; i < BenchBoards.SIZE; i++) {
+            testStates[i] = new PlayerSkeleton.TestState(boards.get(i));
+        }
+        player = new PlayerSkeleton(BenchCorpus.WEIGHTS);
+    }
+
+    @Benchmark
+    public double[] extract(BenchBoards boards) {
+        PlayerSkeleton.TestState state = testStates[boards.nextIndex()];
+        Features.extract(state.board, state.rowsCleared, state.lost, features);
+        return features;
+    }
+
+    @Benchmark
+    public double pitDepthValue(BenchBoards boards) {
+        return player.pitDepthValue(testStates[boards.nextIndex()]);
+    }
+
+    @Benchmark
+    public double meanHeightDiffValue(BenchBoards boards) {
+        return player.meanHeightDiffValue(testStates[boards.nextIndex()]);
+    }
+
+    @Benchmark
+    public int holes(BenchBoards boards) {
+        return testStates[boards.nextIndex()].board.getHoles();
+    }
+
+    @Benchmark
+    public int bumpiness(BenchBoards boards) {
+        return testStates[boards.nextIndex()].board.getBumpiness();
+    }
+
+    @Benchmark
+    public int maxHeight(BenchBoards boards) {
+        return testStates[boards.nextIndex()].board.getMaxHeight();
+    }
+
+    @Benchmark
+    public int heightSum(BenchBoards boards) {
+        return testStates[boards.nextIndex()].board.getHeightSum();
+    }
+}
@@ -0,0 +1,181 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Headless full-game benchmark of the players. Every player first plays
+ * warm-up games, so the JIT has compiled its search, then the measured games,
+ * each from a fixed seed and up to a turn cap. A player plays the same
+ * seeds in every run, so runs of different builds are comparable.
+ *
+ * Each run prints one JSON object on a line of its own to standard output:
+ * moves per second, pickMove latency (p50, p99, max, from a
+ * LatencyHistogram), bytes allocated per move by all threads, collections
+ * and their time, and the lines cleared in each game. Progress, and the
+ * table counters of the PlayerSkeleton players, go to standard error, as do
+ * their phase timings when run with -Dtetris.profile=true (see MoveProfile).
+ *
+ * Usage: MacroBenchmark [games] [turnCap] [warmupGames] [player...]
+ * with players among PLAYERS, all of them by default. It needs no JMH, only
+ * the game and BenchCorpus. From GameOfTetris:
+ *
+ * javac -cp "lib/*" -sourcepath bench -d bench/macro src/gameoftetris/*.java bench/MacroBenchmark.java
+ * java -cp "bench/macro:lib/*" MacroBenchmark
+ */
+public class MacroBenchmark {
+    public static final int GAMES = 5;
+    public static final int TURN_CAP = 5000;
+    public static final int WARMUP_GAMES = 2;
+    // measured game i plays seed SEED + i, warm-up game i seed WARMUP_SEED + i
+    public static final long SEED = BenchCorpus.SEED;
+    public static final long WARMUP_SEED = SEED ^ 0x5DEECE66DL;
+    public static final String[] PLAYERS = {"oneLayer", "twoPly", "twoPlyParallel", "reference"};
+
+    // the move choice of one of the players
+    interface Player {
+        int pickMove(State s, int[][] legalMoves);
+
+        // counters of the player's internals, printed after its run
+        default String diagnostics() {
+            return "";
+        }
+    }
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : GAMES;
+        int turnCap = args.length > 1 ? Integer.parseInt(args[1]) : TURN_CAP;
+        int warmupGames = args.length > 2 ? Integer.parseInt(args[2]) : WARMUP_GAMES;
+        String[] players = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length) : PLAYERS;
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool();
+        try {
+            for (String name : players) {
+                Player player = player(name, forkJoinPool);
+                System.err.println(name + ": " + warmupGames + " warm-up games");
+                for (int i = 0; i < warmupGames; i++) {
+                    play(player, WARMUP_SEED + i, turnCap, new LatencyHistogram());
+                }
+                System.err.println(name + ": " + games + " games");
+                System.out.println(run(name, player, games, turnCap, warmupGames, forkJoinPool));
+                String diagnostics = player.diagnostics();
+                if (!diagnostics.isEmpty()) {
+                    System.err.println(diagnostics);
+                }
+            }
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    static Player player(String name, ForkJoinPool forkJoinPool) {
+        switch (name) {
+            case "oneLayer":
+                return new PlayerSkeletonOneLayer(BenchCorpus.WEIGHTS)::pickMove;
+            case "twoPly":
+                return skeleton(new PlayerSkeleton(BenchCorpus.WEIGHTS));
+            case "twoPlyParallel":
+                return skeleton(new PlayerSkeleton(BenchCorpus.WEIGHTS, forkJoinPool));
+            case "reference":
+                return new PlayerSkeletonReference(forkJoinPool)::pickMove;
+            default:
+                throw new IllegalArgumentException("unknown player " + name + ", expected one of "
+                    + Arrays.toString(PLAYERS));
+        }
+    }
+
+    // a PlayerSkeleton that reports the counters of its transposition tables,
+    // and its phase timings when profiling
+    private static Player skeleton(PlayerSkeleton player) {
+        return new Player() {
+            @Override
+            public int pickMove(State s, int[][] legalMoves) {
+                return player.pickMove(s, legalMoves);
+            }
+
+            @Override
+            public String diagnostics() {
+                String stats = player.tableStats();
+                return MoveProfile.ENABLED ? stats + "\n" + player.profileSnapshot() : stats;
+            }
+        };
+    }
+
+    // the measured games of one player, as a JSON object
+    static String run(String name, Player player, int games, int turnCap, int warmupGames,
+        ForkJoinPool forkJoinPool) {
+        LatencyHistogram latency = new LatencyHistogram();
+        int[] lines = new int[games];
+        long moves = 0;
+
+        long[] gc = gcTotals();
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < games; i++) {
+            State s = play(player, SEED + i, turnCap, latency);
+            lines[i] = s.getRowsCleared();
+            moves += s.getTurnNumber();
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = allocated < 0 ? -1 : allocatedBytes() - allocated;
+        long[] gcAfter = gcTotals();
+
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.ROOT,
+            "{\"player\":\"%s\",\"games\":%d,\"turnCap\":%d,\"warmupGames\":%d,\"seed\":%d,\"poolThreads\":%d,"
+                + "\"moves\":%d,\"seconds\":%.3f,\"movesPerSecond\":%.1f,"
+                + "\"pickMoveNanos\":{\"p50\":%d,\"p99\":%d,\"max\":%d,\"mean\":%.0f},"
+                + "\"bytesPerMove\":%.1f,\"gcCount\":%d,\"gcMillis\":%d,",
+            name, games, turnCap, warmupGames, SEED, forkJoinPool.getParallelism(), moves, nanos / 1e9,
+            moves / (nanos / 1e9), latency.percentile(0.5), latency.percentile(0.99), latency.getMax(),
+            latency.getMean(), bytes < 0 ? -1.0 : (double) bytes / Math.max(moves, 1), gcAfter[0] - gc[0],
+            gcAfter[1] - gc[1]));
+        json.append(String.format(Locale.ROOT, "\"linesPerGame\":%.1f,\"lines\":%s}",
+            Arrays.stream(lines).average().orElse(0), Arrays.toString(lines).replace(" ", "")));
+        return json.toString();
+    }
+
+    // one game of the given seed up to turnCap moves, timing every pickMove
+    static State play(Player player, long seed, int turnCap, LatencyHistogram latency) {
+        State s = new State(PieceSource.seeded(seed));
+        while (!s.lost && s.getTurnNumber() < turnCap) {
+            long start = System.nanoTime();
+            int move = player.pickMove(s, s.legalMoves());
+            latency.record(System.nanoTime() - start);
+            s.makeMove(move);
+        }
+        return s;
+    }
+
+    // Bytes allocated so far by the live threads, pool workers included, or
+    // -1 if the JVM cannot tell. Threads that ended in between are missed.
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+        if (!sun.isThreadAllocatedMemorySupported() || !sun.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : sun.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    // collections and milliseconds spent collecting so far, over all collectors
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(collector.getCollectionCount(), 0);
+            totals[1] += Math.max(collector.getCollectionTime(), 0);
+        }
+        return totals;
+    }
+}
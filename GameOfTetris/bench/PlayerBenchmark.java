@@ -0,0 +1,44 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * One pickMove of the 1-ply PlayerSkeletonOneLayer against the 2-ply
+ * PlayerSkeleton, both with the same weights on the boards of BenchBoards.
+ * PlayerSkeleton searches on the calling thread.
+ *
+ * The transposition table of PlayerSkeleton easily holds the candidates of
+ * every board of the corpus, so twoPly clears it before each pass over the
+ * corpus: every search is of a board not seen since the last clear. The clear
+ * is measured, but spread over BenchBoards.SIZE searches it is well under a
+ * thousandth of their time.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlayerBenchmark extends BenchmarkBase {
+    private PlayerSkeletonOneLayer oneLayer;
+    private PlayerSkeleton twoPly;
+
+    @Setup
+    public void setUp() {
+        oneLayer = new PlayerSkeletonOneLayer(BenchCorpus.WEIGHTS);
+        twoPly = new PlayerSkeleton(BenchCorpus.WEIGHTS);
+    }
+
+    @Benchmark
+    public int oneLayer(BenchBoards boards) {
+        State s = boards.next();
+        return oneLayer.pickMove(s, s.legalMoves());
+    }
+
+    @Benchmark
+    public int twoPly(BenchBoards boards) {
+        int i = boards.nextIndex();
+        if (i == 0) {
+            twoPly.getStateTable().clear();
+        }
+        State s = boards.get(i);
+        return twoPly.pickMove(s, s.legalMoves());
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * One pickMove of PlayerSkeletonReference on the boards of BenchBoards, its
+ * candidate moves mapped over a ForkJoinPool of each size in threads.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReferenceBenchmark extends BenchmarkBase {
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ForkJoinPool forkJoinPool;
+    private PlayerSkeletonReference player;
+
+    @Setup
+    public void setUp() {
+        forkJoinPool = new ForkJoinPool(threads);
+        player = new PlayerSkeletonReference(forkJoinPool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        forkJoinPool.shutdown();
+    }
+
+    @Benchmark
+    public int pickMove(BenchBoards boards) {
+        State s = boards.next();
+        return player.pickMove(s, s.legalMoves());
+    }
+}
@@ -0,0 +1,16 @@
+#!/bin/sh
+# Builds the JMH benchmarks into bench/out/classes, against the jars of lib
+# and bench/lib. JMH takes no benchmarks in the default package, the game's,
+# so the game and the benchmarks are compiled from copies in bench/out/src
+# declared in package gameoftetris, on the first line so line numbers hold.
+# Run from anywhere, then from GameOfTetris:
+#
+# java -cp "bench/out/classes:lib/*:bench/lib/*" gameoftetris.Benchmarks [JMH options]
+set -e
+cd "$(dirname "$0")/.."
+rm -rf bench/out
+mkdir -p bench/out/src/gameoftetris bench/out/classes bench/out/generated
+for f in src/gameoftetris/*.java bench/*.java; do
+    { printf 'package gameoftetris; '; cat "$f"; } > "bench/out/src/gameoftetris/$(basename "$f")"
+done
+javac -nowarn -cp "lib/*:bench/lib/*" -d bench/out/classes -s bench/out/generated bench/out/src/gameoftetris/*.java
@@ -0,0 +1,134 @@
+/**
+ * Board representation where each row is stored as a bit mask of its occupied
+ * columns (bit c set means column c is filled). A full row is a single compare
+ * against FULL_ROW and clearing a row is a shift of the rows array, instead of
+ * the cell by cell scans needed by an int[ROWS][COLS] field. Pieces are placed
+ * by MoveKernel.
+ *
+ * The int[][] field used by draw() and the older players is still available
+ * through getField(), which is only materialized when it is asked for.
+ * Occupied cells in that view are marked with 1 rather than a turn number.
+ */
+public class BitBoard {
+    public static final int COLS = State.COLS;
+    public static final int ROWS = State.ROWS;
+
+    // mask of a row with every column filled (0x3FF for 10 columns)
+    public static final int FULL_ROW = (1 << COLS) - 1;
+
+    // occupied columns of each row
+    final int[] rows;
+    // top row+1 of each column
+    // 0 means empty
+    final int[] top;
+    // aggregates kept up to date by MoveKernel, see MoveKernel.S_*
+    final int[] stats;
+
+    // lazily materialized field view, null when the board changed since the
+    // last call to getField()
+    private int[][] field;
+
+    // construct an empty board
+    public BitBoard() {
+        rows = new int[ROWS];
+        top = new int[COLS];
+        stats = new int[MoveKernel.STATS_SIZE];
+    }
+
+    // construct a copy of the given board
+    public BitBoard(BitBoard other) {
+        this();
+        copyFrom(other);
+    }
+
+    // construct a board from a field where zeros denote empty squares
+    public BitBoard(int[][] field, int[] top) {
+        this();
+        for (int r = 0; r < ROWS; r++) {
+            int mask = 0;
+            for (int c = 0; c < COLS; c++) {
+                if (field[r][c] != 0) {
+                    mask |= 1 << c;
+                }
+            }
+            rows[r] = mask;
+        }
+        System.arraycopy(top, 0, this.top, 0, COLS);
+        MoveKernel.computeStats(rows, this.top, stats);
+    }
+
+    // overwrite this board with the contents of another one
+    public void copyFrom(BitBoard other) {
+        System.arraycopy(other.rows, 0, rows, 0, ROWS);
+        System.arraycopy(other.top, 0, top, 0, COLS);
+        System.arraycopy(other.stats, 0, stats, 0, MoveKernel.STATS_SIZE);
+        field = null;
+    }
+
+    public int[] getRows() {
+        return rows;
+    }
+
+    public int[] getTop() {
+        return top;
+    }
+
+    public int getHeightSum() {
+        return stats[MoveKernel.S_HEIGHT_SUM];
+    }
+
+    public int getMaxHeight() {
+        return stats[MoveKernel.S_MAX_HEIGHT];
+    }
+
+    // sum of the height differences of adjacent columns
+    public int getBumpiness() {
+        return stats[MoveKernel.S_BUMPINESS];
+    }
+
+    // Zobrist hash of the filled cells
+    public long getHash() {
+        return MoveKernel.getHash(stats);
+    }
+
+    // empty cells below the top of their column
+    public int getHoles() {
+        return stats[MoveKernel.S_HEIGHT_SUM] - stats[MoveKernel.S_CELLS];
+    }
+
+    public boolean isFilled(int row, int col) {
+        return (rows[row] & (1 << col)) != 0;
+    }
+
+    public boolean isFull(int row) {
+        return rows[row] == FULL_ROW;
+    }
+
+    // place a piece through MoveKernel, returns the rows cleared or
+    // MoveKernel.LOST
+    public int place(int move, int[] journal, int offset) {
+        field = null;
+        return MoveKernel.place(rows, top, stats, move, journal, offset);
+    }
+
+    // take back a move placed with a journal
+    public void undo(int[] journal, int offset) {
+        field = null;
+        MoveKernel.undo(rows, top, stats, journal, offset);
+    }
+
+    // each square in the grid - 0 means empty - 1 means filled
+    public int[][] getField() {
+        if (field == null) {
+            int[][] newField = new int[ROWS][COLS];
+            for (int r = 0; r < ROWS; r++) {
+                int mask = rows[r];
+                for (int c = 0; c < COLS; c++) {
+                    newField[r][c] = (mask >>> c) & 1;
+                }
+            }
+            field = newField;
+        }
+        return field;
+    }
+}
@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.jgap.Chromosome;
+import org.jgap.Configuration;
+import org.jgap.Gene;
+import org.jgap.IChromosome;
+import org.jgap.InvalidConfigurationException;
+import org.jgap.Population;
+import org.jgap.RandomGenerator;
+import org.jgap.impl.DoubleGene;
+
+/**
+ * A trainer population saved in binary: the raw double alleles and fitness of
+ * every chromosome, the generation number and a seed for each random
+ * generator of the trainer (one per configuration), so a run resumes where it
+ * stopped instead of re-parsing log.txt.
+ *
+ * The file is a header of MAGIC, VERSION, generation, the number of seeds,
+ * the number of chromosomes, genes per chromosome and the bounds of the
+ * genes, then the seeds, then one record per chromosome (fitness, alleles),
+ * then the CRC32 of everything before it. Files are written to a temp file
+ * that is renamed over the old one, so a crash leaves either checkpoint
+ * whole, and read back through a read-only memory map.
+ */
+public final class Checkpoint {
+    private static final int MAGIC = 0x54434B31; // "TCK1"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 4 + 8 + 8;
+
+    public final int generation;
+    // the seed of each generator, in the order they were given to of
+    private final long[] seeds;
+    public final int genes;
+    public final double lower;
+    public final double upper;
+    // fitness then alleles of each chromosome, genes + 1 doubles apiece
+    private final double[] records;
+
+    Checkpoint(int generation, long[] seeds, int genes, double lower, double upper, double[] records) {
+        this.generation = generation;
+        this.seeds = seeds;
+        this.genes = genes;
+        this.lower = lower;
+        this.upper = upper;
+        this.records = records;
+    }
+
+    // A copy of the population, taken on the evolving thread so the
+    // population can change as soon as it returns. Every generator the run
+    // breeds with must be given, as none may draw while the copy is taken:
+    // each is reseeded with its saved seed, so a resumed run draws what this
+    // one goes on to draw.
+    public static Checkpoint of(Population population, int generation, RandomGenerator... randoms) {
+        int n = population.size();
+        int genes = n == 0 ? 0 : population.getChromosome(0).size();
+        double lower = 0;
+        double upper = 0;
+        if (n > 0) {
+            DoubleGene gene = (DoubleGene) population.getChromosome(0).getGene(0);
+            lower = gene.getLowerBound();
+            upper = gene.getUpperBound();
+        }
+        double[] records = new double[n * (genes + 1)];
+        int r = 0;
+        for (IChromosome c : population.getChromosomes()) {
+            records[r++] = c.getFitnessValueDirectly();
+            for (int i = 0; i < genes; i++) {
+                records[r++] = (Double) c.getGene(i).getAllele();
+            }
+        }
+        long[] seeds = new long[randoms.length];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = reseed(randoms[i]);
+        }
+        return new Checkpoint(generation, seeds, genes, lower, upper, records);
+    }
+
+    // a new seed drawn from random, which is reseeded with it if it can be
+    private static long reseed(RandomGenerator random) {
+        long seed = random.nextLong();
+        if (random instanceof Random) {
+            ((Random) random).setSeed(seed);
+        }
+        return seed;
+    }
+
+    // Restart the generators where the checkpointed run left them, given in
+    // the same order as to of. Generators the checkpoint has no seed for are
+    // left as they are.
+    public void restore(RandomGenerator... randoms) {
+        for (int i = 0; i < randoms.length && i < seeds.length; i++) {
+            if (randoms[i] instanceof Random) {
+                ((Random) randoms[i]).setSeed(seeds[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return records.length / (genes + 1);
+    }
+
+    // the chromosomes as DoubleGenes bound to conf, keeping their fitness
+    public Population toPopulation(Configuration conf) throws InvalidConfigurationException {
+        Population population = new Population(conf, size());
+        int r = 0;
+        for (int c = 0; c < size(); c++) {
+            double fitness = records[r++];
+            Gene[] genes = new Gene[this.genes];
+            for (int i = 0; i < genes.length; i++) {
+                genes[i] = new DoubleGene(conf, lower, upper);
+                genes[i].setAllele(records[r++]);
+            }
+            Chromosome chromosome = new Chromosome(conf, genes);
+            chromosome.setFitnessValueDirectly(fitness);
+            population.addChromosome(chromosome);
+        }
+        return population;
+    }
+
+    // write to path through a temp file renamed over it
+    public void write(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + seeds.length * 8 + records.length * 8 + 8);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(generation).putInt(seeds.length).putInt(size()).putInt(genes)
+            .putDouble(lower).putDouble(upper);
+        for (long seed : seeds) {
+            buffer.putLong(seed);
+        }
+        buffer.asDoubleBuffer().put(records);
+        buffer.position(buffer.position() + records.length * 8);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue()).flip();
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out =
+            FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static Checkpoint read(Path path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+            long length = file.length();
+            if (length < HEADER_SIZE + 8) {
+                throw new IOException(path + " is truncated");
+            }
+            MappedByteBuffer map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                throw new IOException(path + " is not a checkpoint");
+            }
+            int generation = map.getInt();
+            int numSeeds = map.getInt();
+            int n = map.getInt();
+            int genes = map.getInt();
+            double lower = map.getDouble();
+            double upper = map.getDouble();
+            if (length != HEADER_SIZE + (long) numSeeds * 8 + (long) n * (genes + 1) * 8 + 8) {
+                throw new IOException(path + " is truncated");
+            }
+            long[] seeds = new long[numSeeds];
+            for (int i = 0; i < numSeeds; i++) {
+                seeds[i] = map.getLong();
+            }
+            double[] records = new double[n * (genes + 1)];
+            map.asDoubleBuffer().get(records);
+
+            CRC32 crc = new CRC32();
+            ByteBuffer body = map.duplicate();
+            body.position(0).limit((int) length - 8);
+            crc.update(body);
+            if (map.getLong((int) length - 8) != crc.getValue()) {
+                throw new IOException(path + " is corrupt");
+            }
+            return new Checkpoint(generation, seeds, genes, lower, upper, records);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes checkpoints to one file on a background thread, so evolution only
+ * pays for copying the population. If checkpoints come faster than the disk
+ * takes them, the ones still waiting are dropped for the newest one.
+ */
+public class CheckpointWriter implements AutoCloseable {
+    private final Path path;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "checkpoint writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // the newest checkpoint not yet picked up by the writer
+    private final AtomicReference<Checkpoint> pending = new AtomicReference<Checkpoint>();
+    private Future<?> last;
+    private volatile IOException failure;
+
+    public CheckpointWriter(Path path) {
+        this.path = path;
+    }
+
+    // Write checkpoint in the background. Throws the error of an earlier
+    // write, if one failed.
+    public synchronized void submit(Checkpoint checkpoint) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (pending.getAndSet(checkpoint) == null) {
+            last = writer.submit(() -> {
+                Checkpoint next = pending.getAndSet(null);
+                try {
+                    next.write(path);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            });
+        }
+    }
+
+    // wait for the last checkpoint to be on disk
+    public synchronized void flush() throws IOException, InterruptedException {
+        if (last != null) {
+            try {
+                last.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Wait for the last checkpoint and stop the writer. If interrupted, the
+    // last checkpoint may not be on disk and the thread stays interrupted.
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writer.shutdown();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Every board feature used by the players, extracted by one walk over the
+ * column tops into a primitive vector indexed by the constants below. The
+ * features MoveKernel keeps in the stats of the board (holes, height sum, max
+ * height, bumpiness) are read from there, the rest are computed in the same
+ * single pass. The feature methods of PlayerSkeleton, PlayerSkeletonOneLayer
+ * and the MoveEvaluators of PlayerSkeletonReference all read this vector.
+ *
+ * Values are raw counts, unweighted and unsigned. LOST is 1 for a lost board
+ * and 0 otherwise. DEEPEST_WELL is Integer.MIN_VALUE when there is no well.
+ */
+public final class Features {
+    public static final int COLS = State.COLS;
+
+    // feature vector layout
+    public static final int HOLES = 0;
+    public static final int ROWS_CLEARED = 1;
+    public static final int BUMPINESS = 2;
+    public static final int LOST = 3;
+    public static final int MAX_HEIGHT = 4;
+    public static final int PIT_DEPTHS = 5;
+    public static final int MEAN_HEIGHT_DIFF = 6;
+    public static final int HEIGHT_SUM = 7;
+    public static final int NUM_WELLS = 8;
+    public static final int DEEPEST_WELL = 9;
+    public static final int COUNT = 10;
+
+    private Features() {
+    }
+
+    // fill features with every feature of the board
+    public static void extract(BitBoard board, int rowsCleared, boolean lost, double[] features) {
+        int[] top = board.top;
+        int heightSum = board.getHeightSum();
+        float meanHeight = (float) heightSum / COLS;
+
+        // the edge columns only have one neighbour
+        int last = COLS - 1;
+        int firstDiff = top[1] - top[0];
+        int lastDiff = top[last - 1] - top[last];
+        float meanHeightDiff = Math.abs(meanHeight - top[0]);
+        int pitDepths = firstDiff > 2 ? firstDiff : 0;
+        // a well is a step of a staircase going up to the right, or an edge
+        // column lower than its neighbour
+        int numWells = 0;
+        int deepestWell = Integer.MIN_VALUE;
+        if (firstDiff > 0) {
+            numWells++;
+            deepestWell = firstDiff;
+        }
+
+        for (int c = 1; c < last; c++) {
+            int height = top[c];
+            meanHeightDiff += Math.abs(meanHeight - height);
+
+            int leftDiff = top[c - 1] - height;
+            int rightDiff = top[c + 1] - height;
+            // a pit is at least 3 below both neighbours
+            int pitDepth = Math.min(leftDiff, rightDiff);
+            if (pitDepth > 2) {
+                pitDepths += pitDepth;
+            }
+            if (leftDiff < 0 && rightDiff > 0) {
+                numWells++;
+                deepestWell = Math.max(deepestWell, Math.max(-leftDiff, rightDiff));
+            }
+        }
+
+        meanHeightDiff += Math.abs(meanHeight - top[last]);
+        if (lastDiff > 2) {
+            pitDepths += lastDiff;
+        }
+        if (lastDiff > 0) {
+            numWells++;
+            deepestWell = Math.max(deepestWell, lastDiff);
+        }
+
+        features[HOLES] = board.getHoles();
+        features[ROWS_CLEARED] = rowsCleared;
+        features[BUMPINESS] = board.getBumpiness();
+        features[LOST] = lost ? 1 : 0;
+        features[MAX_HEIGHT] = board.getMaxHeight();
+        features[PIT_DEPTHS] = pitDepths;
+        features[MEAN_HEIGHT_DIFF] = meanHeightDiff / COLS;
+        features[HEIGHT_SUM] = heightSum;
+        features[NUM_WELLS] = numWells;
+        features[DEEPEST_WELL] = deepestWell;
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fitness of weight vectors already played, so elites that survive a
+ * generation, duplicates bred by crossover and chromosomes of earlier runs are
+ * not played again. Only deterministic fitness can be cached: the key is the
+ * bits of the weights plus the id of the seed set they were scored on, see
+ * seedSet(PieceCorpus). The file also records the version of the player the
+ * fitness was computed with, and a file of another version is discarded.
+ *
+ * Entries live in an LRU map of at most capacity entries, backed by an
+ * append-only file: a header of MAGIC, VERSION, the player version and the
+ * number of weights, then one fixed-size record per miss (seed set, the bits
+ * of each weight, fitness). Opening the file replays it, later records win. A
+ * record cut short by a crash is dropped, and a file with many more records
+ * than the map holds is compacted into a new file that is renamed over it.
+ * Records are appended by a background thread, so a put does not wait for the
+ * disk.
+ */
+public class FitnessCache implements AutoCloseable {
+    private static final int MAGIC = 0x54464331; // "TFC1"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4;
+
+    private final Path path;
+    private final int playerVersion;
+    private final int weights;
+    private final int recordSize;
+    private final LinkedHashMap<Key, Double> entries;
+    private FileChannel log;
+    // appends the records, one at a time
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "fitness cache writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile IOException failure;
+    // records handed to the writer and not yet appended
+    private final AtomicInteger unwritten = new AtomicInteger();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private FitnessCache(Path path, int playerVersion, int weights, final int capacity) {
+        this.path = path;
+        this.playerVersion = playerVersion;
+        this.weights = weights;
+        this.recordSize = 8 + 8 * weights + 8;
+        this.entries = new LinkedHashMap<Key, Double>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Open the cache at path, creating it if there is no file there yet or
+    // replacing it if it was written by another player version. Holds at most
+    // capacity entries in memory.
+    public static FitnessCache open(Path path, int playerVersion, int weights, int capacity) throws IOException {
+        FitnessCache cache = new FitnessCache(path, playerVersion, weights, capacity);
+        long records = Files.exists(path) ? cache.load() : 0;
+        // a new or outdated file, a torn last record, or mostly stale records
+        if (records <= 0 || Files.size(path) != HEADER_SIZE + records * cache.recordSize
+            || records > 2L * cache.entries.size()) {
+            cache.rewrite();
+        }
+        cache.log = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        cache.evictions = 0;
+        return cache;
+    }
+
+    // The records of the file replayed into the map, returns their number,
+    // or -1 if the file is of an older format or another player version.
+    private long load() throws IOException {
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (file.remaining() < 8 || file.getInt() != MAGIC) {
+            throw new IOException(path + " is not a fitness cache");
+        }
+        if (file.getInt() != VERSION || file.remaining() < HEADER_SIZE - 8 || file.getInt() != playerVersion) {
+            return -1;
+        }
+        if (file.getInt() != weights) {
+            throw new IOException(path + " caches chromosomes of another length");
+        }
+        long records = 0;
+        long[] bits = new long[weights];
+        // a partial record at the end was cut short by a crash
+        while (file.remaining() >= recordSize) {
+            long seedSet = file.getLong();
+            for (int i = 0; i < weights; i++) {
+                bits[i] = file.getLong();
+            }
+            entries.put(new Key(seedSet, bits.clone()), file.getDouble());
+            records++;
+        }
+        return records;
+    }
+
+    // write the live entries to a new file and rename it over the old one
+    private void rewrite() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out =
+            FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(playerVersion).putInt(weights).flip();
+            write(out, header);
+            for (Map.Entry<Key, Double> e : entries.entrySet()) {
+                write(out, encode(e.getKey(), e.getValue()));
+            }
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private ByteBuffer encode(Key key, double fitness) {
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.putLong(key.seedSet);
+        for (long b : key.bits) {
+            record.putLong(b);
+        }
+        record.putDouble(fitness).flip();
+        return record;
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    // the cached fitness of weights on seedSet, or NaN
+    public synchronized double get(double[] weights, long seedSet) {
+        Double fitness = entries.get(new Key(seedSet, bitsOf(weights)));
+        if (fitness == null) {
+            misses++;
+            return Double.NaN;
+        }
+        hits++;
+        return fitness;
+    }
+
+    // Cache the fitness and append it to the file in the background. Throws
+    // the error of an earlier append, if one failed.
+    public void put(double[] weights, long seedSet, double fitness) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        Key key = new Key(seedSet, bitsOf(weights));
+        synchronized (this) {
+            entries.put(key, fitness);
+        }
+        ByteBuffer record = encode(key, fitness);
+        unwritten.incrementAndGet();
+        writer.execute(() -> {
+            try {
+                // one write per record, so a crash can only cut the last one
+                // short
+                write(log, record);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                unwritten.decrementAndGet();
+            }
+        });
+    }
+
+    // The bits of the weights, with -0.0 as 0.0 and every NaN alike, so
+    // equal weights have one key.
+    private long[] bitsOf(double[] weights) {
+        if (weights.length != this.weights) {
+            throw new IllegalArgumentException("expected " + this.weights + " weights, got " + weights.length);
+        }
+        long[] bits = new long[weights.length];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = Double.doubleToLongBits(weights[i] + 0.0);
+        }
+        return bits;
+    }
+
+    // id of the games of a corpus: its seed, number of games and length
+    public static long seedSet(PieceCorpus corpus) {
+        long id = corpus.getSeed();
+        id = id * 0x9E3779B97F4A7C15L + corpus.size();
+        id = id * 0x9E3779B97F4A7C15L + corpus.length();
+        return id;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // entries dropped from memory since the cache was opened
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Wait for the records still to be appended and close the file. The
+    // writer closes it after the last record, so no append races the close.
+    // An interrupt stops the wait with an InterruptedIOException counting
+    // the records not yet written, which the writer goes on appending while
+    // the JVM runs; the interrupt flag stays set.
+    @Override
+    public void close() throws IOException {
+        if (!writer.isShutdown()) {
+            writer.execute(() -> {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            });
+            writer.shutdown();
+        }
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(unwritten.get() + " fitness records not yet written");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hits, %d misses, %d evictions, %d entries", hits, misses, evictions,
+            entries.size());
+    }
+
+    private static final class Key {
+        final long seedSet;
+        final long[] bits;
+        final int hash;
+
+        Key(long seedSet, long[] bits) {
+            this.seedSet = seedSet;
+            this.bits = bits;
+            this.hash = 31 * Long.hashCode(seedSet) + Arrays.hashCode(bits);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return seedSet == other.seedSet && Arrays.equals(bits, other.bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
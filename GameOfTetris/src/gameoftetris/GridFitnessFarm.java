@@ -0,0 +1,336 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.homedns.dade.jcgrid.GridConfig;
+import org.homedns.dade.jcgrid.GridNodeGenericConfig;
+import org.homedns.dade.jcgrid.client.GridClient;
+import org.homedns.dade.jcgrid.message.GridMessage;
+import org.homedns.dade.jcgrid.message.GridMessageWorkRequest;
+import org.homedns.dade.jcgrid.message.GridMessageWorkResult;
+import org.homedns.dade.jcgrid.server.GridServer;
+import org.jgap.BulkFitnessFunction;
+import org.jgap.IChromosome;
+import org.jgap.Population;
+
+/**
+ * Plays fitness games in separate worker JVMs on this machine, through a
+ * JCGrid server started in this JVM. Each worker (GridFitnessWorker) has its
+ * own heap, GC and JIT, so a pause or deoptimization in one does not stall
+ * the others or the trainer.
+ *
+ * Every chromosome is sent as a work request to the server, which hands it to
+ * a free worker; a receiver thread matches the results to their requests by
+ * id, so several islands can evaluate at once. Chromosomes that already have
+ * a fitness are not sent. A monitor thread restarts workers that died and
+ * sends the requests still pending again, up to MAX_RESENDS times, and a
+ * request that failed in a worker is tried up to MAX_ATTEMPTS times; past
+ * either limit the request fails. Whichever answer to a request arrives first
+ * is kept. Games and busy time are counted per worker.
+ *
+ * A farm owns a server, a client and worker processes, so it is not
+ * serializable in any useful way: those fields are transient, and a
+ * deserialized copy has none of them.
+ */
+public class GridFitnessFarm extends BulkFitnessFunction implements AutoCloseable {
+    private static final long serialVersionUID = 1L;
+    public static final int MAX_ATTEMPTS = 3;
+    // Times a request is sent again because workers died. The server does
+    // not say which worker has a request, so every pending one is resent,
+    // and a game that kills its worker fails instead of killing them all.
+    public static final int MAX_RESENDS = 3;
+    // how often the monitor checks the workers
+    public static final long MONITOR_MILLIS = 1000;
+
+    private final transient GridServer server;
+    private final transient GridClient client;
+    private final String session;
+    private final int workerPort;
+    private final String workerHeap;
+    private final transient Path corpusFile;
+    private final transient PieceCorpus corpus;
+    private final transient FitnessCache cache;
+
+    private final transient Process[] workers;
+    private final transient ScheduledExecutorService monitor;
+    private final transient Thread receiver;
+    private volatile boolean closed;
+
+    private final AtomicInteger nextRid = new AtomicInteger();
+    private final transient Map<Integer, Job> pending = new ConcurrentHashMap<Integer, Job>();
+    // games and nanoseconds played by each worker
+    private final Map<String, long[]> workerStats = new TreeMap<String, long[]>();
+    private final AtomicInteger restarts = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+    private final AtomicInteger resends = new AtomicInteger();
+
+    private static final class Job {
+        final int rid;
+        final double[] weights;
+        final CompletableFuture<Double> fitness = new CompletableFuture<Double>();
+        // attempts that failed in a worker
+        final AtomicInteger attempts = new AtomicInteger();
+        // sends after workers died
+        final AtomicInteger resends = new AtomicInteger();
+
+        Job(int rid, double[] weights) {
+            this.rid = rid;
+            this.weights = weights;
+        }
+    }
+
+    // Start a server on the default JCGrid ports of localhost and the given
+    // number of worker JVMs with the given -Xmx. The workers open the corpus
+    // at corpusFile, which may be null to play random games.
+    public GridFitnessFarm(int workers, String workerHeap, Path corpusFile, PieceCorpus corpus, FitnessCache cache)
+        throws Exception {
+        this.workerPort = GridConfig.DEFAULT_WORKER_PORT;
+        this.workerHeap = workerHeap;
+        this.corpusFile = corpusFile;
+        this.corpus = corpus;
+        this.cache = cache;
+
+        // requests carry their weights, there are no files to share
+        server = new GridServer();
+        server.getNodeConfig().getGridConfig().setUseVFS(false);
+        server.start();
+
+        // results are routed back to the client by its session name, which
+        // must be unique on the server, as must those of the workers
+        client = new GridClient();
+        GridNodeGenericConfig config = (GridNodeGenericConfig) client.getNodeConfig();
+        config.getGridConfig().setServerAddress("localhost");
+        config.getGridConfig().setUseVFS(false);
+        config.setSessionName(("trainer_" + ManagementFactory.getRuntimeMXBean().getName()).replaceAll("\\W", "_"));
+        client.start();
+        session = config.getSessionName();
+
+        this.workers = new Process[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = spawn(i);
+        }
+        // the workers must not outlive the trainer
+        Runtime.getRuntime().addShutdownHook(new Thread(this::destroyWorkers));
+
+        receiver = new Thread(this::receive, "grid fitness receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "grid fitness monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        monitor.scheduleWithFixedDelay(this::checkWorkers, MONITOR_MILLIS, MONITOR_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // worker i in a JVM of its own, logging to grid-worker-i.out
+    private Process spawn(int i) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(javaCommand());
+        command.add("-Xmx" + workerHeap);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(GridFitnessWorker.class.getName());
+        command.add(Integer.toString(i));
+        command.add("localhost");
+        command.add(Integer.toString(workerPort));
+        if (corpusFile != null) {
+            command.add(corpusFile.toString());
+        }
+        File log = new File("grid-worker-" + i + ".out");
+        return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(Redirect.appendTo(log)).start();
+    }
+
+    @Override
+    public void evaluate(Population population) {
+        List<IChromosome> chromosomes = new ArrayList<IChromosome>();
+        List<Job> jobs = new ArrayList<Job>();
+        long seedSet = cache != null && corpus != null ? FitnessCache.seedSet(corpus) : 0;
+        for (IChromosome c : population.getChromosomes()) {
+            if (c.getFitnessValueDirectly() >= 0) {
+                continue;
+            }
+            double[] weights = Weights.allelesOf(c);
+            double cached = cache != null && corpus != null ? cache.get(weights, seedSet) : Double.NaN;
+            if (!Double.isNaN(cached)) {
+                c.setFitnessValue(cached);
+                continue;
+            }
+            Job job = new Job(nextRid.incrementAndGet(), weights);
+            pending.put(job.rid, job);
+            send(job);
+            chromosomes.add(c);
+            jobs.add(job);
+        }
+        for (int i = 0; i < jobs.size(); i++) {
+            Job job = jobs.get(i);
+            double fitness = job.fitness.join();
+            chromosomes.get(i).setFitnessValue(fitness);
+            if (cache != null && corpus != null) {
+                try {
+                    cache.put(job.weights, seedSet, fitness);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    private void send(Job job) {
+        try {
+            synchronized (client) {
+                client.send(new GridMessageWorkRequest(new GridFitnessWorker.Request(session, job.rid, job.weights)));
+            }
+        } catch (Exception e) {
+            fail(job, e);
+        }
+    }
+
+    private void receive() {
+        while (!closed) {
+            GridMessage message;
+            try {
+                message = client.recv(0);
+            } catch (Exception e) {
+                if (!closed) {
+                    failAll(e);
+                }
+                return;
+            }
+            if (message instanceof GridMessageWorkResult) {
+                received((GridFitnessWorker.Result) ((GridMessageWorkResult) message).getWorkResult());
+            }
+        }
+    }
+
+    private void received(GridFitnessWorker.Result result) {
+        Job job = pending.get(result.getRID());
+        if (job == null) {
+            // a request sent twice, answered already
+            return;
+        }
+        if (result.error != null) {
+            if (job.attempts.incrementAndGet() < MAX_ATTEMPTS) {
+                retries.incrementAndGet();
+                send(job);
+            } else {
+                fail(job, new IllegalStateException(result.worker + ": " + result.error));
+            }
+            return;
+        }
+        if (pending.remove(job.rid) != null) {
+            synchronized (workerStats) {
+                long[] stats = workerStats.computeIfAbsent(result.worker, w -> new long[2]);
+                stats[0]++;
+                stats[1] += result.nanos;
+            }
+            job.fitness.complete(result.fitness);
+        }
+    }
+
+    // restart dead workers and send again what they may have been playing
+    private void checkWorkers() {
+        boolean died = false;
+        for (int i = 0; i < workers.length && !closed; i++) {
+            if (!workers[i].isAlive()) {
+                died = true;
+                restarts.incrementAndGet();
+                try {
+                    workers[i] = spawn(i);
+                } catch (IOException e) {
+                    failAll(e);
+                    return;
+                }
+            }
+        }
+        if (died) {
+            for (Job job : pending.values()) {
+                if (job.resends.incrementAndGet() <= MAX_RESENDS) {
+                    resends.incrementAndGet();
+                    send(job);
+                } else {
+                    fail(job, new IllegalStateException("request " + job.rid + " still pending after "
+                        + MAX_RESENDS + " resends to restarted workers"));
+                }
+            }
+        }
+    }
+
+    private void fail(Job job, Exception e) {
+        pending.remove(job.rid);
+        job.fitness.completeExceptionally(e);
+    }
+
+    private void failAll(Exception e) {
+        for (Job job : pending.values()) {
+            fail(job, e);
+        }
+    }
+
+    private void destroyWorkers() {
+        for (Process worker : workers) {
+            if (worker != null) {
+                worker.destroy();
+            }
+        }
+    }
+
+    // games per second of each worker while it was playing
+    public String workerReport() {
+        StringBuilder report = new StringBuilder();
+        synchronized (workerStats) {
+            for (Map.Entry<String, long[]> e : workerStats.entrySet()) {
+                long games = e.getValue()[0];
+                double seconds = e.getValue()[1] / 1e9;
+                report.append(String.format("%s: %d games in %.1f s, %.2f games/s%n", e.getKey(), games, seconds,
+                    games / Math.max(seconds, 1e-9)));
+            }
+        }
+        return report.toString();
+    }
+
+    @Override
+    public String toString() {
+        return workers.length + " workers, " + restarts.get() + " restarts, " + retries.get() + " retries, " + resends.get()
+            + " resends";
+    }
+
+    // Stop the workers, client and server. If interrupted, the thread stays
+    // interrupted.
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        monitor.shutdownNow();
+        destroyWorkers();
+        try {
+            client.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            throw new IOException("cannot stop the grid client", e);
+        } finally {
+            try {
+                server.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // the java launcher of this JVM, so workers run the same version
+    private static String javaCommand() {
+        return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    }
+}
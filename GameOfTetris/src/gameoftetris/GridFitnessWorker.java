@@ -0,0 +1,97 @@
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+
+import org.homedns.dade.jcgrid.WorkRequest;
+import org.homedns.dade.jcgrid.WorkResult;
+import org.homedns.dade.jcgrid.cmd.MainCmd;
+import org.homedns.dade.jcgrid.worker.GridNodeWorkerConfig;
+import org.homedns.dade.jcgrid.worker.GridWorker;
+import org.homedns.dade.jcgrid.worker.Worker;
+
+/**
+ * One worker JVM of a GridFitnessFarm. It connects to the JCGrid server on the
+ * worker port and plays the games of the requests it is handed, one at a
+ * time, on its own heap.
+ *
+ * Usage: GridFitnessWorker name serverAddress workerPort [corpusFile]
+ */
+public class GridFitnessWorker implements Worker {
+
+    // the weights of one chromosome to play
+    public static class Request extends WorkRequest {
+        private static final long serialVersionUID = 1L;
+
+        final double[] weights;
+
+        Request(String session, int rid, double[] weights) {
+            super(session, rid);
+            this.weights = weights;
+        }
+    }
+
+    // the fitness of a request, or the error that stopped it
+    public static class Result extends WorkResult {
+        private static final long serialVersionUID = 1L;
+
+        final double fitness;
+        final String worker;
+        final long nanos;
+        final String error;
+
+        Result(String session, int rid, double fitness, String worker, long nanos, String error) {
+            super(session, rid);
+            this.fitness = fitness;
+            this.worker = worker;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        @Override
+        public long getUnitDone() {
+            return error == null ? 1 : 0;
+        }
+    }
+
+    private final String name;
+    private final PieceCorpus corpus;
+
+    GridFitnessWorker(String name, PieceCorpus corpus) {
+        this.name = name;
+        this.corpus = corpus;
+    }
+
+    @Override
+    public WorkResult doWork(WorkRequest work, String workDir) {
+        Request request = (Request) work;
+        long start = System.nanoTime();
+        try {
+            double fitness = PlayerFitnessFunction.evaluate(request.weights, corpus);
+            return new Result(request.getSessionName(), request.getRID(), fitness, name, System.nanoTime() - start,
+                null);
+        } catch (RuntimeException e) {
+            // sent back so the farm can retry elsewhere
+            return new Result(request.getSessionName(), request.getRID(), Double.NaN, name,
+                System.nanoTime() - start, e.toString());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // session names are restricted to [a-zA-Z0-9_]
+        String name = ("worker_" + args[0] + "_" + ManagementFactory.getRuntimeMXBean().getName()).replaceAll("\\W", "_");
+        MainCmd.setUpLog4J("worker-" + args[0], false);
+        PieceCorpus corpus = args.length > 3 ? PieceCorpus.open(Paths.get(args[3])) : null;
+
+        GridWorker worker = new GridWorker();
+        GridNodeWorkerConfig config = (GridNodeWorkerConfig) worker.getNodeConfig();
+        config.getGridConfig().setServerAddress(args[1]);
+        config.getGridConfig().setServerWorkerPort(Integer.parseInt(args[2]));
+        config.getGridConfig().setUseVFS(false);
+        // the server refuses a second node with the same session name
+        config.setSessionName(name);
+        // one game at a time, parallelism comes from the number of JVMs
+        config.setWorkerCount(1);
+        worker.setWorker(new GridFitnessWorker(name, corpus));
+        worker.start();
+        worker.waitShutdown();
+    }
+}
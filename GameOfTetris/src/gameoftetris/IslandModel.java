@@ -0,0 +1,239 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.jgap.BulkFitnessFunction;
+import org.jgap.Chromosome;
+import org.jgap.Configuration;
+import org.jgap.Gene;
+import org.jgap.Genotype;
+import org.jgap.IChromosome;
+import org.jgap.InvalidConfigurationException;
+import org.jgap.Population;
+import org.jgap.impl.DoubleGene;
+
+/**
+ * Island-model GA over JGAP genotypes, one per island, each with its own
+ * Configuration. Islands evolve in epochs of migrationInterval generations as
+ * tasks on an executor; the caller blocks on their futures until all of them
+ * are done, then the fittest migrants of each island replace the weakest
+ * chromosomes of its neighbours in the topology. There can be more islands
+ * than threads.
+ *
+ * mergeElites replaces chaining FittestPopulationMerger over the islands: it
+ * keeps the fittest chromosomes of all islands in one pass, preferring
+ * distinct ones.
+ */
+public class IslandModel {
+    public enum Topology {
+        // islands never exchange chromosomes
+        NONE,
+        // island i sends its migrants to island i + 1
+        RING,
+        // every island sends its migrants to every other island
+        FULL
+    }
+
+    private final Configuration[] confs;
+    private final Genotype[] islands;
+    private final ExecutorService executor;
+    private final int migrationInterval;
+    private final int migrants;
+    private final Topology topology;
+
+    // Islands start from copies of the given populations. Every
+    // configuration needs its own id, see Configuration.reset.
+    public IslandModel(Configuration[] confs, Population[] populations, ExecutorService executor,
+        int migrationInterval, int migrants, Topology topology) throws InvalidConfigurationException {
+        this.confs = confs;
+        this.islands = new Genotype[confs.length];
+        this.executor = executor;
+        this.migrationInterval = migrationInterval;
+        this.migrants = migrants;
+        this.topology = topology;
+        for (int i = 0; i < confs.length; i++) {
+            islands[i] = new Genotype(confs[i], copy(populations[i], confs[i]));
+        }
+    }
+
+    // evolve every island for the given number of generations
+    public void evolve(int generations) throws InterruptedException, ExecutionException,
+        InvalidConfigurationException {
+        for (int done = 0; done < generations; done += migrationInterval) {
+            final int epoch = Math.min(migrationInterval, generations - done);
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (final Genotype island : islands) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int generation = 0; generation < epoch; generation++) {
+                            SuccessiveHalvingFitnessFunction.scoreTogether(island.getConfiguration(),
+                                island.getPopulation());
+                            island.evolve();
+                        }
+                        evaluateFitness(island.getPopulation());
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                // rethrows what an island threw
+                result.get();
+            }
+            migrate();
+        }
+    }
+
+    // Score the chromosomes bred by the last generation, on the island's own
+    // thread, so sorting them later does not evaluate them one by one.
+    private static void evaluateFitness(Population population) {
+        BulkFitnessFunction bulk = population.getConfiguration().getBulkFitnessFunction();
+        if (bulk instanceof SuccessiveHalvingFitnessFunction) {
+            // its scores only compare within one batch
+            SuccessiveHalvingFitnessFunction.scoreTogether(population.getConfiguration(), population);
+            return;
+        }
+        if (bulk == null) {
+            for (IChromosome c : population.getChromosomes()) {
+                c.getFitnessValue();
+            }
+            return;
+        }
+        List<IChromosome> unscored = new ArrayList<IChromosome>();
+        for (IChromosome c : population.getChromosomes()) {
+            if (c.getFitnessValueDirectly() < 0) {
+                unscored.add(c);
+            }
+        }
+        if (!unscored.isEmpty()) {
+            try {
+                bulk.evaluate(new Population(population.getConfiguration(), unscored.toArray(new IChromosome[0])));
+            } catch (InvalidConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private void migrate() throws InvalidConfigurationException {
+        if (topology == Topology.NONE || migrants == 0 || islands.length < 2) {
+            return;
+        }
+        // pick every island's migrants before any island receives any
+        List<List<IChromosome>> emigrants = new ArrayList<List<IChromosome>>();
+        for (Genotype island : islands) {
+            Population population = island.getPopulation();
+            population.sortByFitness();
+            emigrants.add(new ArrayList<IChromosome>(population.getChromosomes().subList(0,
+                Math.min(migrants, population.size()))));
+        }
+        for (int to = 0; to < islands.length; to++) {
+            List<IChromosome> immigrants = new ArrayList<IChromosome>();
+            for (int from = 0; from < islands.length; from++) {
+                boolean neighbour =
+                    topology == Topology.FULL ? from != to : (from + 1) % islands.length == to;
+                if (neighbour) {
+                    immigrants.addAll(emigrants.get(from));
+                }
+            }
+            // the weakest chromosomes make way, the population is still
+            // sorted fittest first
+            Population population = islands[to].getPopulation();
+            int slot = population.size() - 1;
+            for (IChromosome immigrant : immigrants) {
+                if (slot < 0) {
+                    break;
+                }
+                population.setChromosome(slot--, copy(immigrant, confs[to]));
+            }
+        }
+    }
+
+    // Restart every island from copies of the given population, as after a
+    // merge of all islands.
+    public void reseed(Population population) throws InvalidConfigurationException {
+        for (int i = 0; i < islands.length; i++) {
+            islands[i] = new Genotype(confs[i], copy(population, confs[i]));
+        }
+    }
+
+    // Restart the islands from a checkpointed population as the run that saved
+    // it went on: every island from copies of all of it, see reseed, at the
+    // generation number its islands had reached.
+    public void resume(Population population, int generation) throws InvalidConfigurationException {
+        for (Configuration conf : confs) {
+            while (conf.getGenerationNr() < generation) {
+                conf.incrementGenerationNr();
+            }
+        }
+        reseed(population);
+    }
+
+    // the fittest chromosomes of all islands, distinct ones first, at most
+    // size of them
+    public Population mergeElites(Configuration conf, int size) throws InvalidConfigurationException {
+        List<IChromosome> all = new ArrayList<IChromosome>();
+        for (Genotype island : islands) {
+            all.addAll(island.getPopulation().getChromosomes());
+        }
+        all.sort(Comparator.comparingDouble(IChromosome::getFitnessValueDirectly).reversed());
+
+        Population merged = new Population(conf);
+        Set<List<Double>> seen = new HashSet<List<Double>>();
+        boolean[] taken = new boolean[all.size()];
+        for (int i = 0; i < all.size() && merged.size() < size; i++) {
+            if (seen.add(Arrays.asList(alleles(all.get(i))))) {
+                merged.addChromosome(copy(all.get(i), conf));
+                taken[i] = true;
+            }
+        }
+        // converged islands may not have enough distinct chromosomes, top up
+        // with the fittest duplicates
+        for (int i = 0; i < all.size() && merged.size() < size; i++) {
+            if (!taken[i]) {
+                merged.addChromosome(copy(all.get(i), conf));
+            }
+        }
+        return merged;
+    }
+
+    public Genotype[] getIslands() {
+        return islands;
+    }
+
+    private static Double[] alleles(IChromosome c) {
+        Double[] alleles = new Double[c.size()];
+        for (int i = 0; i < alleles.length; i++) {
+            alleles[i] = (Double) c.getGene(i).getAllele();
+        }
+        return alleles;
+    }
+
+    private static Population copy(Population population, Configuration conf) throws InvalidConfigurationException {
+        Population copy = new Population(conf, population.size());
+        for (IChromosome c : population.getChromosomes()) {
+            copy.addChromosome(copy(c, conf));
+        }
+        return copy;
+    }
+
+    // a copy of a chromosome of DoubleGenes bound to another configuration,
+    // keeping its fitness so it is not played again
+    private static IChromosome copy(IChromosome c, Configuration conf) throws InvalidConfigurationException {
+        Gene[] genes = new Gene[c.size()];
+        for (int i = 0; i < genes.length; i++) {
+            DoubleGene gene = (DoubleGene) c.getGene(i);
+            genes[i] = new DoubleGene(conf, gene.getLowerBound(), gene.getUpperBound());
+            genes[i].setAllele(gene.getAllele());
+        }
+        Chromosome copy = new Chromosome(conf, genes);
+        copy.setFitnessValueDirectly(c.getFitnessValueDirectly());
+        return copy;
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket histogram of durations in nanoseconds, for percentiles of
+ * move latencies without keeping every sample.
+ *
+ * Values below 2^SUB_BITS have a bucket each; above that every power of two
+ * is split into 2^SUB_BITS equal buckets, so a value is known to within
+ * 1/2^SUB_BITS (about 6%) of itself, from nanoseconds to centuries, in
+ * BUCKETS counters. Recording is an array increment and nothing is allocated
+ * after construction.
+ *
+ * A histogram has a single writer, which stores every counter with lazySet:
+ * no lock or compare-and-set, but other threads may read the histogram, or
+ * take a snapshot(), while it records. They see the values recorded up to
+ * some recent point, the last one possibly in some counters only.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    public static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // by the writer only, see the class comment
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = bucket(nanos);
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        count.lazySet(count.get() + 1);
+        sum.lazySet(sum.get() + nanos);
+        if (nanos > max.get()) {
+            max.lazySet(nanos);
+        }
+    }
+
+    // the bucket of a value, see the class comment
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // the largest value that falls in the given bucket
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    // The value at or below which the given fraction (0-1) of the values
+    // fall, as the upper bound of its bucket, but never above the largest
+    // value recorded. 0 when nothing was recorded.
+    public long percentile(double fraction) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // Add the values of another histogram to this one, by the writer of this
+    // one. The other one may be recording meanwhile.
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.lazySet(i, counts.get(i) + other.counts.get(i));
+        }
+        count.lazySet(count.get() + other.count.get());
+        sum.lazySet(sum.get() + other.sum.get());
+        max.lazySet(Math.max(max.get(), other.max.get()));
+    }
+
+    // a copy of the histogram as it is now, see the class comment
+    public LatencyHistogram snapshot() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    // by the writer only
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.lazySet(i, 0);
+        }
+        count.lazySet(0);
+        sum.lazySet(0);
+        max.lazySet(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d values, mean %.0f ns, p50 %d ns, p99 %d ns, max %d ns", getCount(), getMean(),
+            percentile(0.5), percentile(0.99), getMax());
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jgap.BulkFitnessFunction;
+import org.jgap.IChromosome;
+import org.jgap.Population;
+
+/**
+ * Scores a population on a work-stealing pool, longest games first
+ * (longest-processing-time-first), so that the games that would finish last
+ * start first and the generation ends sooner.
+ *
+ * Game length grows with rows cleared, so a chromosome's length is predicted
+ * by its fitness: its own previous score if it has one, otherwise the score of
+ * the nearest weight vector scored before, which is usually one of its
+ * parents since children are crossovers and small mutations of them. JGAP
+ * does not tell us the parents, so the nearest neighbour stands in for them.
+ *
+ * One scheduler can be shared by the configurations of all islands. Every
+ * island puts its games in one priority queue, and whenever a worker of the
+ * pool is free it plays the longest predicted game waiting in the queue,
+ * whichever island it came from.
+ *
+ * A scheduler is not serializable in any useful way: its pool, corpus and
+ * cache are transient, and a deserialized copy has none of them.
+ */
+public class LptFitnessScheduler extends BulkFitnessFunction {
+    private static final long serialVersionUID = 1L;
+    // scored weight vectors remembered for predictions
+    public static final int HISTORY_SIZE = 1024;
+
+    private final transient ForkJoinPool pool;
+    private final transient PieceCorpus corpus;
+    private final transient FitnessCache cache;
+
+    // ring buffer of the last HISTORY_SIZE scored weight vectors
+    private final double[][] history = new double[HISTORY_SIZE][];
+    private final double[] historyFitness = new double[HISTORY_SIZE];
+    private int historyCount;
+
+    // games of every island not yet started, longest predicted first
+    private final transient PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<Job>();
+    private final AtomicLong submitted = new AtomicLong();
+
+    private volatile long lastMakespan;
+    private volatile int lastGames;
+
+    private final class Job implements Comparable<Job> {
+        final double[] weights;
+        final double predicted;
+        // submission order, so equal predictions are played first come first
+        final long sequence = submitted.getAndIncrement();
+        final CompletableFuture<Double> fitness = new CompletableFuture<Double>();
+
+        Job(double[] weights, double predicted) {
+            this.weights = weights;
+            this.predicted = predicted;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int byLength = Double.compare(other.predicted, predicted);
+            return byLength != 0 ? byLength : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    // corpus may be null to play one random game per chromosome, and cache
+    // null to play every chromosome, as for PlayerFitnessFunction
+    public LptFitnessScheduler(ForkJoinPool pool, PieceCorpus corpus, FitnessCache cache) {
+        this.pool = pool;
+        this.corpus = corpus;
+        this.cache = cache;
+    }
+
+    @Override
+    public void evaluate(Population population) {
+        long start = System.nanoTime();
+        List<IChromosome> chromosomes = new ArrayList<IChromosome>();
+        List<Job> jobs = new ArrayList<Job>();
+        for (IChromosome c : population.getChromosomes()) {
+            if (c.getFitnessValueDirectly() < 0) {
+                double[] weights = Weights.allelesOf(c);
+                chromosomes.add(c);
+                jobs.add(new Job(weights, predict(weights)));
+            }
+        }
+        // One pool task per game, each playing the head of the queue rather
+        // than its own game. A task is submitted after its game is queued, so
+        // the queue is never empty when a task polls it.
+        for (Job job : jobs) {
+            queue.add(job);
+            pool.execute(this::playNext);
+        }
+        for (int i = 0; i < jobs.size(); i++) {
+            double fitness = jobs.get(i).fitness.join();
+            chromosomes.get(i).setFitnessValue(fitness);
+            remember(jobs.get(i).weights, fitness);
+        }
+        lastGames = jobs.size();
+        lastMakespan = System.nanoTime() - start;
+    }
+
+    // play the longest predicted game waiting
+    private void playNext() {
+        Job job = queue.poll();
+        try {
+            job.fitness.complete(PlayerFitnessFunction.evaluate(job.weights, corpus, cache));
+        } catch (RuntimeException e) {
+            job.fitness.completeExceptionally(e);
+        }
+    }
+
+    // fitness of the nearest remembered weight vector, 0 if there is none
+    private synchronized double predict(double[] weights) {
+        double nearest = Double.POSITIVE_INFINITY;
+        double fitness = 0;
+        int n = Math.min(historyCount, HISTORY_SIZE);
+        for (int h = 0; h < n; h++) {
+            double distance = 0;
+            for (int i = 0; i < weights.length; i++) {
+                double d = weights[i] - history[h][i];
+                distance += d * d;
+            }
+            if (distance < nearest) {
+                nearest = distance;
+                fitness = historyFitness[h];
+            }
+        }
+        return fitness;
+    }
+
+    private synchronized void remember(double[] weights, double fitness) {
+        int slot = historyCount++ % HISTORY_SIZE;
+        history[slot] = weights;
+        historyFitness[slot] = fitness;
+    }
+
+    // wall time of the last evaluate, in nanoseconds
+    public long getLastMakespan() {
+        return lastMakespan;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d games in %.1f ms", lastGames, lastMakespan / 1e6);
+    }
+}
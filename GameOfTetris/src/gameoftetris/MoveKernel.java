@@ -0,0 +1,229 @@
+/**
+ * The one implementation of placing a piece and clearing full rows, shared by
+ * State, PlayerSkeleton.TestState, PlayerSkeletonOneLayer.TestState and
+ * PlayerSkeletonReference.ImmutableState.
+ *
+ * The board is passed as its primitive buffers: rows, one bit mask of filled
+ * columns per row (see BitBoard), top, the top row+1 of each column, and
+ * stats, aggregates of the board kept up to date by every move (height sum,
+ * filled cell count, max height, the sum of adjacent height differences and
+ * the Zobrist hash of the board). A move without a line clear only updates the
+ * stats for the cells and columns the piece touched. Nothing is allocated. A
+ * move either returns the number of rows it cleared or LOST when the piece
+ * does not fit, in which case the board is left untouched.
+ *
+ * If a journal buffer is given, the move records JOURNAL_SIZE ints at the
+ * given offset which undo() uses to restore the exact previous board:
+ * the move id, the landing height (-1 if lost), the rows cleared (which were
+ * all full, so their masks need no saving), the previous top of every column
+ * and the previous stats.
+ */
+public final class MoveKernel {
+    public static final int COLS = State.COLS;
+    public static final int ROWS = State.ROWS;
+    public static final int FULL_ROW = BitBoard.FULL_ROW;
+
+    // returned when the piece does not fit
+    public static final int LOST = -1;
+
+    // stats layout
+    public static final int S_HEIGHT_SUM = 0;
+    public static final int S_CELLS = 1;
+    public static final int S_MAX_HEIGHT = 2;
+    public static final int S_BUMPINESS = 3;
+    // low and high half of the Zobrist hash
+    public static final int S_HASH_LO = 4;
+    public static final int S_HASH_HI = 5;
+    public static final int STATS_SIZE = 6;
+
+    // blocks in every piece
+    private static final int PIECE_CELLS = 4;
+
+    // journal layout
+    private static final int J_MOVE = 0;
+    private static final int J_HEIGHT = 1;
+    private static final int J_CLEARED = 2;
+    // at most one cleared row per row of the piece
+    private static final int J_ROWS = 3;
+    private static final int J_TOP = J_ROWS + PlacementTables.MAX_HEIGHT;
+    private static final int J_STATS = J_TOP + COLS;
+    public static final int JOURNAL_SIZE = J_STATS + STATS_SIZE;
+
+    private MoveKernel() {
+    }
+
+    // returns the number of rows cleared, or LOST
+    public static int place(int[] rows, int[] top, int[] stats, int piece, int orient, int slot, int[] journal,
+        int offset) {
+        return place(rows, top, stats, PlacementTables.moveId(piece, orient, slot), journal, offset);
+    }
+
+    // returns the number of rows cleared, or LOST
+    public static int place(int[] rows, int[] top, int[] stats, int move, int[] journal, int offset) {
+        int[] bottom = PlacementTables.BOTTOM;
+        int[] pieceTop = PlacementTables.TOP;
+        int[] rowMasks = PlacementTables.ROW_MASKS;
+        int slot = PlacementTables.POSITION[move];
+        int width = PlacementTables.WIDTH[move];
+        int pieceHeight = PlacementTables.HEIGHT[move];
+        int col = move * PlacementTables.MAX_WIDTH;
+        int row = move * PlacementTables.MAX_HEIGHT;
+
+        // height if the first column makes contact
+        int height = top[slot] - bottom[col];
+        // for each column beyond the first in the piece
+        for (int c = 1; c < width; c++) {
+            height = Math.max(height, top[slot + c] - bottom[col + c]);
+        }
+
+        if (journal != null) {
+            journal[offset + J_MOVE] = move;
+            journal[offset + J_CLEARED] = 0;
+            System.arraycopy(top, 0, journal, offset + J_TOP, COLS);
+            System.arraycopy(stats, 0, journal, offset + J_STATS, STATS_SIZE);
+        }
+
+        // check if game ended
+        if (height + pieceHeight >= ROWS) {
+            if (journal != null) {
+                journal[offset + J_HEIGHT] = -1;
+            }
+            return LOST;
+        }
+
+        // for each row of the piece - fill in the appropriate blocks
+        long hash = 0;
+        for (int h = 0; h < pieceHeight; h++) {
+            rows[height + h] |= rowMasks[row + h];
+            hash ^= Zobrist.rowKey(height + h, rowMasks[row + h]);
+        }
+        stats[S_HASH_LO] ^= (int) hash;
+        stats[S_HASH_HI] ^= (int) (hash >>> 32);
+
+        // adjust top, and the stats of the touched columns with it
+        int left = slot > 0 ? slot - 1 : 0;
+        int right = slot + width < COLS ? slot + width : COLS - 1;
+        int heightSum = stats[S_HEIGHT_SUM];
+        int maxHeight = stats[S_MAX_HEIGHT];
+        int bumpiness = stats[S_BUMPINESS] - bumpiness(top, left, right);
+        for (int c = 0; c < width; c++) {
+            int newTop = height + pieceTop[col + c];
+            heightSum += newTop - top[slot + c];
+            maxHeight = Math.max(maxHeight, newTop);
+            top[slot + c] = newTop;
+        }
+        stats[S_HEIGHT_SUM] = heightSum;
+        stats[S_CELLS] += PIECE_CELLS;
+        stats[S_MAX_HEIGHT] = maxHeight;
+        stats[S_BUMPINESS] = bumpiness + bumpiness(top, left, right);
+
+        int rowsCleared = 0;
+        // check for full rows - starting at the top
+        for (int r = height + pieceHeight - 1; r >= height; r--) {
+            // if the row was full - remove it and slide above stuff down
+            if (rows[r] == FULL_ROW) {
+                if (journal != null) {
+                    journal[offset + J_ROWS + rowsCleared] = r;
+                }
+                rowsCleared++;
+                clearRow(rows, top, r);
+            }
+        }
+        // every top and every cell above the cleared rows may have changed
+        if (rowsCleared > 0) {
+            stats[S_CELLS] -= rowsCleared * COLS;
+            updateStats(top, stats);
+            setHash(stats, Zobrist.hash(rows));
+        }
+
+        if (journal != null) {
+            journal[offset + J_HEIGHT] = height;
+            journal[offset + J_CLEARED] = rowsCleared;
+        }
+        return rowsCleared;
+    }
+
+    // take back the move recorded at the given offset of the journal
+    public static void undo(int[] rows, int[] top, int[] stats, int[] journal, int offset) {
+        int height = journal[offset + J_HEIGHT];
+        if (height < 0) {
+            return;
+        }
+        int move = journal[offset + J_MOVE];
+        int row = move * PlacementTables.MAX_HEIGHT;
+
+        // put the cleared rows back, the lowest one was removed last
+        for (int n = journal[offset + J_CLEARED] - 1; n >= 0; n--) {
+            restoreRow(rows, journal[offset + J_ROWS + n]);
+        }
+
+        // take the piece out again
+        for (int h = 0; h < PlacementTables.HEIGHT[move]; h++) {
+            rows[height + h] &= ~PlacementTables.ROW_MASKS[row + h];
+        }
+        System.arraycopy(journal, offset + J_TOP, top, 0, COLS);
+        System.arraycopy(journal, offset + J_STATS, stats, 0, STATS_SIZE);
+    }
+
+    // recompute every stat of a board from scratch
+    public static void computeStats(int[] rows, int[] top, int[] stats) {
+        int cells = 0;
+        for (int r = 0; r < ROWS; r++) {
+            cells += Integer.bitCount(rows[r]);
+        }
+        stats[S_CELLS] = cells;
+        updateStats(top, stats);
+        setHash(stats, Zobrist.hash(rows));
+    }
+
+    public static long getHash(int[] stats) {
+        return ((long) stats[S_HASH_HI] << 32) | (stats[S_HASH_LO] & 0xFFFFFFFFL);
+    }
+
+    private static void setHash(int[] stats, long hash) {
+        stats[S_HASH_LO] = (int) hash;
+        stats[S_HASH_HI] = (int) (hash >>> 32);
+    }
+
+    // recompute the stats that only depend on the tops
+    private static void updateStats(int[] top, int[] stats) {
+        int heightSum = 0;
+        int maxHeight = 0;
+        for (int c = 0; c < COLS; c++) {
+            heightSum += top[c];
+            maxHeight = Math.max(maxHeight, top[c]);
+        }
+        stats[S_HEIGHT_SUM] = heightSum;
+        stats[S_MAX_HEIGHT] = maxHeight;
+        stats[S_BUMPINESS] = bumpiness(top, 0, COLS - 1);
+    }
+
+    // sum of the height differences of adjacent columns between two columns
+    private static int bumpiness(int[] top, int from, int to) {
+        int sum = 0;
+        for (int c = from; c < to; c++) {
+            sum += Math.abs(top[c] - top[c + 1]);
+        }
+        return sum;
+    }
+
+    // remove the given row, slide everything above it down and lower the tops
+    static void clearRow(int[] rows, int[] top, int row) {
+        System.arraycopy(rows, row + 1, rows, row, ROWS - 1 - row);
+        rows[ROWS - 1] = 0;
+        for (int c = 0; c < COLS; c++) {
+            int bit = 1 << c;
+            // lower the top
+            top[c]--;
+            while (top[c] >= 1 && (rows[top[c] - 1] & bit) == 0)
+                top[c]--;
+        }
+    }
+
+    // put back a full row removed by clearRow, sliding everything above it up
+    // again. The tops are restored separately.
+    static void restoreRow(int[] rows, int row) {
+        System.arraycopy(rows, row, rows, row + 1, ROWS - 1 - row);
+        rows[row] = FULL_ROW;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Where the time of PlayerSkeleton.pickMove goes: a LatencyHistogram for
+ * every phase of the search and every piece type. Each Search records into a
+ * profile of its own, from one thread at a time; other threads may read it or
+ * add it to theirs meanwhile, as LatencyHistogram allows.
+ *
+ * Profiling is off unless the JVM is started with -Dtetris.profile=true.
+ * ENABLED is a constant, so when it is off start(), sample() and stop()
+ * compile to nothing and the clock is never read. When it is on, recording a
+ * phase is two clock reads and a few counter stores. The phases of a move
+ * and of a first-ply candidate are a few dozen per move and are all timed.
+ * MAKE_MOVE and EVALUATE happen at every node of the search tree, so only a
+ * random one in SAMPLE_INTERVAL of their calls is timed: their count is that
+ * share of the calls, and their mean and percentiles estimate those of every
+ * call. A call not sampled costs a few shifts of a generator.
+ *
+ * Phases nest: PICK_MOVE is a whole move and CANDIDATES the selection of the
+ * first-ply candidates, which includes the 1-ply search pruning does. COPY is
+ * loading the game into a Search, and SUBTREE the value of one first-ply
+ * candidate, its move and all the search below it; pruning's 1-ply values
+ * count too. MAKE_MOVE and EVALUATE are single calls within SUBTREE. The
+ * piece of a phase is the one being placed, or the one placed last for
+ * EVALUATE.
+ */
+public final class MoveProfile {
+    public static final boolean ENABLED = Boolean.getBoolean("tetris.profile");
+
+    public static final int PICK_MOVE = 0;
+    // choosing which first-ply candidates to expand
+    public static final int CANDIDATES = 1;
+    // loading the game state into a TestState
+    public static final int COPY = 2;
+    // one first-ply candidate and the search below it
+    public static final int SUBTREE = 3;
+    // TestState.makeMove during the search, sampled
+    public static final int MAKE_MOVE = 4;
+    // evaluateOneLevelLower on a leaf, sampled
+    public static final int EVALUATE = 5;
+    public static final int PHASES = 6;
+    private static final String[] PHASE_NAMES = {"pickMove", "candidates", "copy", "subtree", "makeMove", "evaluate"};
+    // one in this many calls of a sampled phase is timed, a power of two
+    public static final int SAMPLE_INTERVAL = 64;
+
+    // histograms[phase][piece]
+    private final LatencyHistogram[][] histograms = new LatencyHistogram[PHASES][State.N_PIECES];
+    // xorshift state picking the sampled calls, so the samples do not follow
+    // the loops of the search; only the thread recording uses it
+    private long sampler = 0x9E3779B97F4A7C15L;
+
+    public MoveProfile() {
+        for (LatencyHistogram[] phase : histograms) {
+            for (int piece = 0; piece < phase.length; piece++) {
+                phase[piece] = new LatencyHistogram();
+            }
+        }
+    }
+
+    // the clock when profiling, else 0 without reading it
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    // the clock for a random one in SAMPLE_INTERVAL calls when profiling,
+    // else 0 without reading it
+    public static long sample(MoveProfile profile) {
+        if (ENABLED) {
+            long x = profile.sampler;
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            profile.sampler = x;
+            if ((x & (SAMPLE_INTERVAL - 1)) == 0) {
+                return System.nanoTime();
+            }
+        }
+        return 0;
+    }
+
+    // when profiling, record the time since start for the phase and piece,
+    // unless start is the 0 of a call sample() passed over
+    public static void stop(MoveProfile profile, int phase, int piece, long start) {
+        if (ENABLED && start != 0) {
+            profile.histograms[phase][piece].record(System.nanoTime() - start);
+        }
+    }
+
+    public LatencyHistogram get(int phase, int piece) {
+        return histograms[phase][piece];
+    }
+
+    // the phase over every piece
+    public LatencyHistogram get(int phase) {
+        LatencyHistogram total = new LatencyHistogram();
+        for (LatencyHistogram piece : histograms[phase]) {
+            total.add(piece);
+        }
+        return total;
+    }
+
+    // Add the values of another profile to this one. The other one may be
+    // recording meanwhile, see LatencyHistogram.
+    public void add(MoveProfile other) {
+        for (int phase = 0; phase < PHASES; phase++) {
+            for (int piece = 0; piece < State.N_PIECES; piece++) {
+                histograms[phase][piece].add(other.histograms[phase][piece]);
+            }
+        }
+    }
+
+    public MoveProfile snapshot() {
+        MoveProfile copy = new MoveProfile();
+        copy.add(this);
+        return copy;
+    }
+
+    // One line per phase and piece that was recorded, piece "all" for the
+    // phase as a whole: phase, piece, count, mean, p50, p99 and max in
+    // nanoseconds, separated by spaces.
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("phase piece count mean p50 p99 max\n");
+        for (int phase = 0; phase < PHASES; phase++) {
+            append(text, PHASE_NAMES[phase], "all", get(phase));
+            for (int piece = 0; piece < State.N_PIECES; piece++) {
+                append(text, PHASE_NAMES[phase], Integer.toString(piece), histograms[phase][piece]);
+            }
+        }
+        return text.toString();
+    }
+
+    private static void append(StringBuilder text, String phase, String piece, LatencyHistogram histogram) {
+        if (histogram.getCount() > 0) {
+            text.append(String.format("%s %s %d %.0f %d %d %d%n", phase, piece, histogram.getCount(),
+                histogram.getMean(), histogram.percentile(0.5), histogram.percentile(0.99), histogram.getMax()));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+/**
+ * A fixed set of seeded piece sequences, so every chromosome can be scored on
+ * the same games (common random numbers) and differences in fitness come from
+ * the weights rather than from luck.
+ *
+ * The sequences live in a corpus file that is memory-mapped read-only, so one
+ * copy is shared by every thread and stays in the page cache across runs. The
+ * file starts with a header of MAGIC, VERSION, the seed, the number of games
+ * and the pieces per game, followed by the pieces of each game, one byte each.
+ * A game that outlasts its stored pieces continues with a generator seeded
+ * from the corpus seed and the game number, so it is still the same for every
+ * player. A corpus has at least one game, so a mean over its games is
+ * defined.
+ */
+public class PieceCorpus {
+    private static final int MAGIC = 0x54504331; // "TPC1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+    // the corpus is mapped as one buffer, which cannot exceed 2 GB
+    public static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+    private final MappedByteBuffer pieces;
+    private final long seed;
+    private final int games;
+    private final int length;
+
+    private PieceCorpus(MappedByteBuffer pieces, long seed, int games, int length) {
+        this.pieces = pieces;
+        this.seed = seed;
+        this.games = games;
+        this.length = length;
+    }
+
+    // Map the corpus at path, generating it first if there is no file there
+    // yet. An existing corpus is used as is, whatever the other arguments.
+    public static PieceCorpus openOrCreate(Path path, long seed, int games, int length) throws IOException {
+        if (!Files.exists(path)) {
+            create(path, seed, games, length);
+        }
+        return open(path);
+    }
+
+    // write a new corpus of games sequences of length pieces each
+    public static void create(Path path, long seed, int games, int length) throws IOException {
+        if (games <= 0) {
+            throw new IllegalArgumentException("a corpus needs at least one game, not " + games);
+        }
+        if (length < 0 || HEADER_SIZE + (long) games * length > MAX_FILE_SIZE) {
+            throw new IllegalArgumentException("a corpus of " + games + " games of " + length
+                + " pieces does not fit in " + MAX_FILE_SIZE + " bytes");
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(seed).putInt(games).putInt(length).flip();
+
+        // written next to the final file and renamed, so a reader never maps
+        // a half written corpus
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out =
+            FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            out.write(header);
+            ByteBuffer game = ByteBuffer.allocate(length);
+            for (int g = 0; g < games; g++) {
+                SplittableRandom gameRandom = random.split();
+                game.clear();
+                for (int i = 0; i < length; i++) {
+                    game.put((byte) gameRandom.nextInt(State.N_PIECES));
+                }
+                game.flip();
+                while (game.hasRemaining()) {
+                    out.write(game);
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static PieceCorpus open(Path path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+            if (file.length() > MAX_FILE_SIZE) {
+                throw new IOException(path + " is larger than " + MAX_FILE_SIZE + " bytes");
+            }
+            if (file.length() < HEADER_SIZE) {
+                throw new IOException(path + " is not a piece corpus");
+            }
+            MappedByteBuffer map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                throw new IOException(path + " is not a piece corpus");
+            }
+            long seed = map.getLong();
+            int games = map.getInt();
+            int length = map.getInt();
+            if (games < 0 || length < 0 || file.length() != HEADER_SIZE + (long) games * length) {
+                throw new IOException(path + " is truncated");
+            }
+            if (games == 0) {
+                throw new IOException(path + " has no games");
+            }
+            return new PieceCorpus(map, seed, games, length);
+        }
+    }
+
+    // number of games in the corpus
+    public int size() {
+        return games;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    // A new source playing the given game. Sources share the mapped file and
+    // can be used from any thread.
+    public PieceSource source(int game) {
+        if (game < 0 || game >= games) {
+            throw new IndexOutOfBoundsException("game " + game + " of a corpus of " + games);
+        }
+        ByteBuffer sequence = pieces.duplicate();
+        // below MAX_FILE_SIZE, see create and open
+        int start = (int) (HEADER_SIZE + (long) game * length);
+        sequence.limit(start + length).position(start);
+        return PieceSource.sequence(sequence, PieceSource.seeded(seed * 31 + game));
+    }
+}
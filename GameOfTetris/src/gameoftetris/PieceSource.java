@@ -0,0 +1,75 @@
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * Supplies the sequence of pieces a State plays. A source belongs to a single
+ * State and is not shared between threads.
+ *
+ * - random(): an unseeded generator split off a per-thread SplittableRandom,
+ * so parallel games never contend on a shared generator
+ * - seeded(seed): a reproducible generator, the same seed always gives the
+ * same game
+ * - sequence(buffer, rest): pieces read one byte each from a pre-generated
+ * buffer, continuing with another source once the buffer runs out
+ */
+public interface PieceSource {
+
+    // returns the next piece, 0-6
+    int nextPiece();
+
+    static PieceSource random() {
+        return new RandomPieceSource(RandomPieceSource.THREAD_ROOTS.get().split());
+    }
+
+    static PieceSource seeded(long seed) {
+        return new RandomPieceSource(new SplittableRandom(seed));
+    }
+
+    static PieceSource sequence(ByteBuffer pieces, PieceSource rest) {
+        return new SequencePieceSource(pieces, rest);
+    }
+
+    public static class RandomPieceSource implements PieceSource {
+        // per-thread root generators, each one split off a common seed
+        // generator so no two threads share a stream
+        private static final ThreadLocal<SplittableRandom> THREAD_ROOTS = new ThreadLocal<SplittableRandom>() {
+            private final SplittableRandom seeds = new SplittableRandom();
+
+            @Override
+            protected synchronized SplittableRandom initialValue() {
+                return seeds.split();
+            }
+        };
+
+        private final SplittableRandom random;
+
+        public RandomPieceSource(SplittableRandom random) {
+            this.random = random;
+        }
+
+        @Override
+        public int nextPiece() {
+            return random.nextInt(State.N_PIECES);
+        }
+    }
+
+    public static class SequencePieceSource implements PieceSource {
+        private final ByteBuffer pieces;
+        private final PieceSource rest;
+
+        // reads from the buffer's position to its limit without moving the
+        // caller's position, so one buffer can feed many games
+        public SequencePieceSource(ByteBuffer pieces, PieceSource rest) {
+            this.pieces = pieces.duplicate();
+            this.rest = rest;
+        }
+
+        @Override
+        public int nextPiece() {
+            if (pieces.hasRemaining()) {
+                return pieces.get();
+            }
+            return rest.nextPiece();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Piece vocabulary and every placement of every piece, computed once when the
+ * class is loaded and shared by State and all the players.
+ *
+ * A placement (piece, orientation, slot) is identified by a move id. The ids
+ * of a piece are contiguous and in the same order as its legal moves, so the
+ * id of legal move n of a piece is MOVE_BASE[piece] + n. For each move id the
+ * tables hold, in flat primitive arrays with a stride of MAX_WIDTH:
+ *
+ * - BOTTOM: the bottom profile, the row of the lowest block of each column
+ * relative to the row the piece lands on
+ * - TOP: the top profile, the row above the highest block of each column
+ * - ROW_MASKS: the landing footprint, the blocks the piece adds to each row
+ * above the landing row, already shifted to the slot
+ *
+ * None of the arrays may be written to.
+ */
+public final class PlacementTables {
+    public static final int COLS = State.COLS;
+    public static final int N_PIECES = State.N_PIECES;
+
+    // indices for legalMoves
+    public static final int ORIENT = 0;
+    public static final int SLOT = 1;
+
+    // widest and tallest piece, the stride of the flat arrays
+    public static final int MAX_WIDTH = 4;
+    public static final int MAX_HEIGHT = 4;
+    public static final int MAX_ORIENTS = 4;
+
+    // possible orientations for a given piece type
+    static final int[] P_ORIENTS = {1, 2, 4, 4, 4, 2, 2};
+
+    // the next several arrays define the piece vocabulary in detail
+    // width of the pieces [piece ID][orientation]
+    static final int[][] P_WIDTH = { {2}, {1, 4}, {2, 3, 2, 3}, {2, 3, 2, 3}, {2, 3, 2, 3}, {3, 2}, {3, 2}};
+    // height of the pieces [piece ID][orientation]
+    static final int[][] P_HEIGHT = { {2}, {4, 1}, {3, 2, 3, 2}, {3, 2, 3, 2}, {3, 2, 3, 2}, {2, 3}, {2, 3}};
+    static final int[][][] P_BOTTOM = { {{0, 0}}, { {0}, {0, 0, 0, 0}}, { {0, 0}, {0, 1, 1}, {2, 0}, {0, 0, 0}},
+        { {0, 0}, {0, 0, 0}, {0, 2}, {1, 1, 0}}, { {0, 1}, {1, 0, 1}, {1, 0}, {0, 0, 0}}, { {0, 0, 1}, {1, 0}},
+        { {1, 0, 0}, {0, 1}}};
+    static final int[][][] P_TOP = { {{2, 2}}, { {4}, {1, 1, 1, 1}}, { {3, 1}, {2, 2, 2}, {3, 3}, {1, 1, 2}},
+        { {1, 3}, {2, 1, 1}, {3, 3}, {2, 2, 2}}, { {3, 2}, {2, 2, 2}, {2, 3}, {1, 2, 1}}, { {1, 2, 2}, {3, 2}},
+        { {2, 2, 1}, {2, 3}}};
+
+    // all legal moves - first index is piece type - then a list of 2-length
+    // arrays
+    static final int[][][] LEGAL_MOVES = new int[N_PIECES][][];
+
+    // first move id of each piece, and of each [piece * MAX_ORIENTS + orient]
+    static final int[] MOVE_BASE = new int[N_PIECES + 1];
+    static final int[] ORIENT_BASE = new int[N_PIECES * MAX_ORIENTS];
+    public static final int N_MOVES;
+
+    // per move id
+    static final int[] PIECE;
+    static final int[] ORIENTATION;
+    static final int[] POSITION;
+    static final int[] WIDTH;
+    static final int[] HEIGHT;
+    // per move id, stride MAX_WIDTH
+    static final int[] BOTTOM;
+    static final int[] TOP;
+    // per move id, stride MAX_HEIGHT
+    static final int[] ROW_MASKS;
+
+    static {
+        // for each piece type
+        int id = 0;
+        for (int i = 0; i < N_PIECES; i++) {
+            // figure number of legal moves
+            int n = 0;
+            for (int j = 0; j < P_ORIENTS[i]; j++) {
+                // number of locations in this orientation
+                n += COLS + 1 - P_WIDTH[i][j];
+            }
+            // allocate space
+            LEGAL_MOVES[i] = new int[n][2];
+            MOVE_BASE[i] = id;
+            // for each orientation
+            n = 0;
+            for (int j = 0; j < P_ORIENTS[i]; j++) {
+                ORIENT_BASE[i * MAX_ORIENTS + j] = id;
+                // for each slot
+                for (int k = 0; k < COLS + 1 - P_WIDTH[i][j]; k++) {
+                    LEGAL_MOVES[i][n][ORIENT] = j;
+                    LEGAL_MOVES[i][n][SLOT] = k;
+                    n++;
+                    id++;
+                }
+            }
+        }
+        MOVE_BASE[N_PIECES] = id;
+        N_MOVES = id;
+
+        PIECE = new int[N_MOVES];
+        ORIENTATION = new int[N_MOVES];
+        POSITION = new int[N_MOVES];
+        WIDTH = new int[N_MOVES];
+        HEIGHT = new int[N_MOVES];
+        BOTTOM = new int[N_MOVES * MAX_WIDTH];
+        TOP = new int[N_MOVES * MAX_WIDTH];
+        ROW_MASKS = new int[N_MOVES * MAX_HEIGHT];
+        for (int i = 0; i < N_PIECES; i++) {
+            for (int n = 0; n < LEGAL_MOVES[i].length; n++) {
+                int m = MOVE_BASE[i] + n;
+                int orient = LEGAL_MOVES[i][n][ORIENT];
+                int slot = LEGAL_MOVES[i][n][SLOT];
+                PIECE[m] = i;
+                ORIENTATION[m] = orient;
+                POSITION[m] = slot;
+                WIDTH[m] = P_WIDTH[i][orient];
+                HEIGHT[m] = P_HEIGHT[i][orient];
+                for (int c = 0; c < WIDTH[m]; c++) {
+                    BOTTOM[m * MAX_WIDTH + c] = P_BOTTOM[i][orient][c];
+                    TOP[m * MAX_WIDTH + c] = P_TOP[i][orient][c];
+                    for (int h = P_BOTTOM[i][orient][c]; h < P_TOP[i][orient][c]; h++) {
+                        ROW_MASKS[m * MAX_HEIGHT + h] |= 1 << (slot + c);
+                    }
+                }
+            }
+        }
+    }
+
+    private PlacementTables() {
+    }
+
+    // move id of a placement
+    public static int moveId(int piece, int orient, int slot) {
+        return ORIENT_BASE[piece * MAX_ORIENTS + orient] + slot;
+    }
+
+    // number of legal moves of a piece
+    public static int numMoves(int piece) {
+        return MOVE_BASE[piece + 1] - MOVE_BASE[piece];
+    }
+}
@@ -1,19 +1,79 @@
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 import org.jgap.FitnessFunction;
 import org.jgap.IChromosome;
 
 public class PlayerFitnessFunction extends FitnessFunction {
+    // Version of the fitness computed here, kept with a FitnessCache. Bump it
+    // with any change to PlayerSkeletonOneLayer, its features or the scoring
+    // of games that changes the fitness of a weight vector.
+    public static final int VERSION = 1;
+
+    // games every chromosome plays, or null for one random game each
+    private final PieceCorpus corpus;
+    // fitness already known, or null
+    private final FitnessCache cache;
 
     public PlayerFitnessFunction() {
+        this(null);
+    }
 
+    // Score every chromosome on all the games of the corpus, so the whole
+    // population plays the same pieces.
+    public PlayerFitnessFunction(PieceCorpus corpus) {
+        this(corpus, null);
+    }
+
+    // As above, looking the chromosome up in the cache before playing it.
+    // The cache is only used with a corpus, one random game is not
+    // reproducible.
+    public PlayerFitnessFunction(PieceCorpus corpus, FitnessCache cache) {
+        this.corpus = corpus;
+        this.cache = cache;
     }
 
     @Override
     // Evaluation of subject's fitness
     protected double evaluate(IChromosome subject) {
-        double[] weights = Arrays.stream(subject.getGenes()).mapToDouble(gene -> (double) gene.getAllele()).toArray();
-        return new PlayerSkeletonOneLayer(weights).run();
+        double[] weights = Weights.allelesOf(subject);
+        return evaluate(weights, corpus, cache);
+    }
+
+    // the fitness of a weight vector, from the cache if it has been played
+    // on the corpus before
+    public static double evaluate(double[] weights, PieceCorpus corpus, FitnessCache cache) {
+        if (cache == null || corpus == null) {
+            return evaluate(weights, corpus);
+        }
+        long seedSet = FitnessCache.seedSet(corpus);
+        double fitness = cache.get(weights, seedSet);
+        if (Double.isNaN(fitness)) {
+            fitness = evaluate(weights, corpus);
+            try {
+                cache.put(weights, seedSet, fitness);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return fitness;
+    }
+
+    // the fitness of a weight vector, as for a chromosome of those alleles
+    public static double evaluate(double[] weights, PieceCorpus corpus) {
+        if (corpus == null) {
+            return new PlayerSkeletonOneLayer(weights).run();
+        }
+        return evaluate(new PlayerSkeletonOneLayer(weights), corpus);
+    }
+
+    // mean rows cleared over the games of the corpus
+    public static double evaluate(PlayerSkeletonOneLayer player, PieceCorpus corpus) {
+        long rows = 0;
+        for (int game = 0; game < corpus.size(); game++) {
+            rows += player.run(corpus.source(game));
+        }
+        return (double) rows / corpus.size();
     }
 }
@@ -1,4 +1,9 @@
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class is an implementation of a goal based Tetris playing agent. It
@@ -21,119 +26,279 @@ import java.util.Arrays;
  */
 public class PlayerSkeleton {
 
-    public static double NUM_HOLES_WEIGHT;
-    public static double COMPLETE_LINES_WEIGHT;
-    public static double HEIGHT_VAR_WEIGHT;
-    public static double LOST_WEIGHT;
-    public static double MAX_HEIGHT_WEIGHT;
-    public static double PIT_DEPTH_WEIGHT;
-    public static double MEAN_HEIGHT_DIFF_WEIGHT;
+    // weights of this player only, see Weights
+    private final Weights weights;
 
     // Essentially the same as State.java. Reproduced here so that we can carry
     // out our local search across all possible resulting states given the
     // current state.
     public static class TestState {
-        int[][] field;
+        BitBoard board;
         int[] top;
         int turn;
         int rowsCleared;
         boolean lost = false;
 
+        // Undo journal, one frame per move made and not yet undone. A frame
+        // is the MoveKernel journal of the move followed by the previous lost
+        // flag and rows cleared. It grows if more moves are stacked up than
+        // the search normally needs.
+        private static final int INITIAL_DEPTH = 4;
+        private static final int J_LOST = MoveKernel.JOURNAL_SIZE;
+        private static final int J_ROWS_CLEARED = MoveKernel.JOURNAL_SIZE + 1;
+        private static final int FRAME = MoveKernel.JOURNAL_SIZE + 2;
+        private int[] journal = new int[INITIAL_DEPTH * FRAME];
+        private int depth = 0;
+        // feature vector of the board, refilled by extractFeatures
+        private final double[] features = new double[Features.COUNT];
+
+        public TestState() {
+            this.board = new BitBoard();
+            this.top = board.top;
+        }
+
         public TestState(State s) {
-            this.field = cloneField(s.getField());
-            this.top = Arrays.copyOf(s.getTop(), s.getTop().length);
-            this.turn = s.getTurnNumber();
-            this.rowsCleared = s.getRowsCleared();
+            this();
+            load(s);
+        }
+
+        // reset this state to a copy of the given one, dropping the journal
+        public void load(State s) {
+            board.copyFrom(s.getBoard());
+            turn = s.getTurnNumber();
+            rowsCleared = s.getRowsCleared();
+            lost = false;
+            depth = 0;
         }
 
         public TestState(TestState s) {
-            this.field = cloneField(s.field);
-            this.top = Arrays.copyOf(s.top, s.top.length);
+            this.board = new BitBoard(s.board);
+            this.top = board.top;
             this.turn = s.turn;
             this.rowsCleared = s.rowsCleared;
         }
 
-        private int[][] cloneField(int[][] field) {
-            int[][] newField = new int[field.length][];
-            for (int i = 0; i < newField.length; i++) {
-                newField[i] = Arrays.copyOf(field[i], field[i].length);
-            }
-            return newField;
-        }
-
         // returns false if you lose - true otherwise
         public boolean makeMove(int piece, int orient, int slot) {
-            // height if the first column makes contact
-            int height = top[slot] - pBottom[piece][orient][0];
-            // for each column beyond the first in the piece
-            for (int c = 1; c < pWidth[piece][orient]; c++) {
-                height = Math.max(height, top[slot + c] - pBottom[piece][orient][c]);
+            int frame = depth * FRAME;
+            if (frame == journal.length) {
+                journal = Arrays.copyOf(journal, journal.length * 2);
             }
+            journal[frame + J_LOST] = lost ? 1 : 0;
+            journal[frame + J_ROWS_CLEARED] = rowsCleared;
+            depth++;
 
+            int cleared = board.place(PlacementTables.moveId(piece, orient, slot), journal, frame);
             // check if game ended
-            if (height + pHeight[piece][orient] >= ROWS) {
+            if (cleared == MoveKernel.LOST) {
                 lost = true;
                 return false;
             }
+            rowsCleared += cleared;
+            return true;
+        }
 
-            // for each column in the piece - fill in the appropriate blocks
-            for (int i = 0; i < pWidth[piece][orient]; i++) {
+        // every feature of the current board, see Features. The vector is
+        // reused by the next call.
+        public double[] extractFeatures() {
+            Features.extract(board, rowsCleared, lost, features);
+            return features;
+        }
 
-                // from bottom to top of brick
-                for (int h = height + pBottom[piece][orient][i]; h < height + pTop[piece][orient][i]; h++) {
-                    field[h][i + slot] = turn;
-                }
-            }
+        // take back the last move made, restoring the exact previous state
+        public void undoMove() {
+            depth--;
+            int frame = depth * FRAME;
+            board.undo(journal, frame);
+            lost = journal[frame + J_LOST] != 0;
+            rowsCleared = journal[frame + J_ROWS_CLEARED];
+        }
+
+    }
+
+    // Scratch space of one searching thread: the board candidate moves are
+    // made and then undone on, instead of copying it once per candidate, and
+    // the transposition tables of the boards it has searched. The board is
+    // reloaded from the game state on every pickMove.
+    private static class Search {
+        final TestState state = new TestState();
+        final TranspositionTable stateTable = new TranspositionTable(STATE_TABLE_BITS);
+        TranspositionTable leafTable;
+        // phase timings of this thread, null unless MoveProfile.ENABLED
+        final MoveProfile profile = MoveProfile.ENABLED ? new MoveProfile() : null;
+
+        @Override
+        public String toString() {
+            return "states: " + stateTable + (leafTable != null ? "; leaves: " + leafTable : "");
+        }
+    }
 
-            // adjust top
-            for (int c = 0; c < pWidth[piece][orient]; c++) {
-                top[slot + c] = height + pTop[piece][orient][c];
+    // Values of boards already searched, keyed by their Zobrist hash and the
+    // rows cleared so far, so a cached value is exactly the value a new search
+    // would find. Lost boards are cheap to evaluate and are not cached.
+    // Leaves only go through a table when setLeafTableBits asks for one: the
+    // incrementally kept features make a leaf about as cheap as a probe.
+    private static final int STATE_TABLE_BITS = 16;
+    private volatile int leafTableBits = 0;
+
+    // search of the thread calling pickMove
+    private final Search search = new Search();
+
+    // Workers the first-ply candidates are split across, or null to search
+    // on the calling thread. Every candidate task checks a Search out of
+    // idleSearches and returns it when done, and the values of the candidates
+    // are reduced in order, so the move picked does not depend on the number
+    // of workers or on how the candidates were split. There are never more
+    // Searches than tasks running at once, however many threads the pool goes
+    // through; searches holds all of them, for their counters.
+    private final ForkJoinPool forkJoinPool;
+    private final List<Search> searches = new ArrayList<Search>();
+    private final ConcurrentLinkedQueue<Search> idleSearches = new ConcurrentLinkedQueue<Search>();
+    // value of each first-ply candidate, filled in by the workers
+    private double[] candidateValues = new double[0];
+
+    // Candidates expanded past the first ply. When pruning, the others are
+    // ranked by their 1-ply value in shallowValues and given the value
+    // NEGATIVE_INFINITY instead of being searched.
+    private boolean[] expanded = new boolean[0];
+    private double[] shallowValues = new double[0];
+    private double[] rankedValues = new double[0];
+
+    // Number of best 1-ply candidates expanded, 0 for no such limit,
+    // and how far below the best 1-ply value a candidate is still expanded.
+    // Pruning is off until setPruning is called.
+    private boolean pruning = false;
+    private int pruneTopK = 0;
+    private double pruneMargin = 0;
+    // With checkPruning, every pruned search without a time budget is also
+    // run in full, counting the moves on which the two disagree.
+    private boolean checkPruning = false;
+    private long candidatesRanked;
+    private long candidatesPruned;
+    private long prunedSearchesChecked;
+    private long prunedMismatches;
+
+    // Plies searched without a time budget: the first piece and then one
+    // expectimax layer over the N_PIECES next pieces.
+    public static final int SEARCH_DEPTH = 2;
+    // deepest level an anytime search goes to
+    public static final int MAX_DEPTH = 3;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    // Time budget of a move in nanoseconds, 0 to always search SEARCH_DEPTH
+    // plies. With a budget the search deepens one ply at a time up to
+    // MAX_DEPTH and plays the best move of the deepest level it completed.
+    private long timeBudget = 0;
+    // System.nanoTime() at which the running level is abandoned
+    private volatile long deadline = NO_DEADLINE;
+    private volatile boolean timedOut = false;
+    private int depthReached = 0;
+
+    // Implement this function to have a working system. A player searches one
+    // move at a time: the candidate values and the calling thread's Search
+    // belong to the instance, so pickMove is not re-entrant and must not be
+    // called by two threads at once.
+    public int pickMove(State s, int[][] legalMoves) {
+        long start = MoveProfile.start();
+        int move = bestMove(s, legalMoves);
+        MoveProfile.stop(search.profile, MoveProfile.PICK_MOVE, s.nextPiece, start);
+        return move;
+    }
+
+    private int bestMove(State s, int[][] legalMoves) {
+        if (candidateValues.length < legalMoves.length) {
+            candidateValues = new double[legalMoves.length];
+            shallowValues = new double[legalMoves.length];
+            rankedValues = new double[legalMoves.length];
+            expanded = new boolean[legalMoves.length];
+        }
+        if (timeBudget == 0) {
+            depthReached = SEARCH_DEPTH;
+            return pickMove(s, legalMoves, SEARCH_DEPTH);
+        }
+
+        long start = System.nanoTime();
+        // the first level always completes so there is a move to play
+        deadline = NO_DEADLINE;
+        int bestMove = pickMove(s, legalMoves, 1);
+        depthReached = 1;
+        deadline = start + timeBudget;
+        for (int depth = 2; depth <= MAX_DEPTH; depth++) {
+            int move = pickMove(s, legalMoves, depth);
+            if (timedOut) {
+                break;
             }
+            bestMove = move;
+            depthReached = depth;
+        }
+        deadline = NO_DEADLINE;
+        return bestMove;
+    }
 
-            // check for full rows - starting at the top
-            for (int r = height + pHeight[piece][orient] - 1; r >= height; r--) {
-                // check all columns in the row
-                boolean full = true;
-                for (int c = 0; c < COLS; c++) {
-                    if (field[r][c] == 0) {
-                        full = false;
-                        break;
-                    }
-                }
-                // if the row was full - remove it and slide above stuff down
-                if (full) {
-                    rowsCleared++;
-                    // for each column
-                    for (int c = 0; c < COLS; c++) {
-
-                        // slide down all bricks
-                        for (int i = r; i < top[c]; i++) {
-                            field[i][c] = field[i + 1][c];
-                        }
-                        // lower the top
-                        top[c]--;
-                        while (top[c] >= 1 && field[top[c] - 1][c] == 0)
-                            top[c]--;
-                    }
-                }
+    // best move of a search of the given number of plies
+    private int pickMove(State s, int[][] legalMoves, int depth) {
+        boolean prune = depth > 1 && pruning;
+        long start = MoveProfile.start();
+        if (prune) {
+            selectCandidates(s, legalMoves);
+        } else {
+            Arrays.fill(expanded, 0, legalMoves.length, true);
+        }
+        MoveProfile.stop(search.profile, MoveProfile.CANDIDATES, s.nextPiece, start);
+        int move = searchCandidates(s, legalMoves, depth);
+
+        if (prune && checkPruning && timeBudget == 0) {
+            Arrays.fill(expanded, 0, legalMoves.length, true);
+            int fullMove = searchCandidates(s, legalMoves, depth);
+            prunedSearchesChecked++;
+            if (fullMove != move) {
+                prunedMismatches++;
             }
-            return true;
         }
+        return move;
+    }
 
+    // Rank the candidates by their 1-ply value and only expand the best
+    // pruneTopK of them, if pruneTopK > 0, and any other within pruneMargin of
+    // the best.
+    private void selectCandidates(State s, int[][] legalMoves) {
+        int n = legalMoves.length;
+        prepare(search, s);
+        for (int i = 0; i < n; i++) {
+            shallowValues[i] = evaluateCandidate(search, s.nextPiece, legalMoves[i], 1);
+        }
+        System.arraycopy(shallowValues, 0, rankedValues, 0, n);
+        Arrays.sort(rankedValues, 0, n);
+        double kthValue = pruneTopK > 0 ? rankedValues[Math.max(n - pruneTopK, 0)] : Double.POSITIVE_INFINITY;
+        double marginValue = rankedValues[n - 1] - pruneMargin;
+        for (int i = 0; i < n; i++) {
+            expanded[i] = shallowValues[i] >= kthValue || shallowValues[i] >= marginValue;
+            if (!expanded[i]) {
+                candidatesPruned++;
+            }
+        }
+        candidatesRanked += n;
     }
 
-    // implement this function to have a working system
-    public int pickMove(State s, int[][] legalMoves) {
+    // search the expanded candidates and return the best one
+    private int searchCandidates(State s, int[][] legalMoves, int depth) {
+        timedOut = false;
+        if (forkJoinPool == null) {
+            prepare(search, s);
+            for (int i = 0; i < legalMoves.length && !timedOut; i++) {
+                candidateValues[i] =
+                    expanded[i] ? evaluateCandidate(search, s.nextPiece, legalMoves[i], depth)
+                        : Double.NEGATIVE_INFINITY;
+            }
+        } else {
+            forkJoinPool.invoke(new CandidateTask(s, legalMoves, 0, legalMoves.length, depth));
+        }
+
         double bestValueSoFar = -1;
-        TestState bestStateSoFar = null;
         int bestMoveSoFar = 0;
         for (int i = 0; i < legalMoves.length; i++) {
-            TestState state = new TestState(s);
-            state.makeMove(s.nextPiece, legalMoves[i][ORIENT], legalMoves[i][SLOT]);
-
-            double value = !state.lost ? evaluateState(state) : evaluateOneLevelLower(state);
-            if (value > bestValueSoFar || bestStateSoFar == null) {
-                bestStateSoFar = state;
+            double value = candidateValues[i];
+            if (value > bestValueSoFar || i == 0) {
                 bestValueSoFar = value;
                 bestMoveSoFar = i;
             }
@@ -142,38 +307,260 @@ public class PlayerSkeleton {
         return bestMoveSoFar;
     }
 
+    // Give every move the given number of milliseconds and search as deep as
+    // it allows, or search SEARCH_DEPTH plies with 0.
+    public void setTimeBudget(long millis) {
+        timeBudget = millis * 1000000L;
+    }
+
+    // plies of the search the last move came from
+    public int getDepthReached() {
+        return depthReached;
+    }
+
+    // Only expand the topK best candidates by 1-ply value, and those within
+    // margin of the best one. With a topK of 0 or less only the margin
+    // decides.
+    public void setPruning(int topK, double margin) {
+        pruning = true;
+        pruneTopK = topK;
+        pruneMargin = margin;
+    }
+
+    // expand every candidate again
+    public void clearPruning() {
+        pruning = false;
+    }
+
+    // also run the full search on every pruned move to count disagreements
+    public void setCheckPruning(boolean checkPruning) {
+        this.checkPruning = checkPruning;
+    }
+
+    public String pruningStats() {
+        return String.format("%d of %d candidates pruned, %d of %d checked moves differ from the full search",
+            candidatesPruned, candidatesRanked, prunedMismatches, prunedSearchesChecked);
+    }
+
+    // Evaluates a range of first-ply candidates, halving it until one
+    // candidate is left.
+    private class CandidateTask extends RecursiveAction {
+        private final State s;
+        private final int[][] legalMoves;
+        private final int from;
+        private final int to;
+        private final int depth;
+
+        CandidateTask(State s, int[][] legalMoves, int from, int to, int depth) {
+            this.s = s;
+            this.legalMoves = legalMoves;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CandidateTask(s, legalMoves, from, middle, depth), new CandidateTask(s, legalMoves,
+                    middle, to, depth));
+                return;
+            }
+            if (!expanded[from]) {
+                candidateValues[from] = Double.NEGATIVE_INFINITY;
+                return;
+            }
+            if (timedOut) {
+                return;
+            }
+            Search search = checkOut();
+            try {
+                prepare(search, s);
+                candidateValues[from] = evaluateCandidate(search, s.nextPiece, legalMoves[from], depth);
+            } finally {
+                idleSearches.add(search);
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    // load the game state into a search, and size its leaf table
+    private void prepare(Search search, State s) {
+        long start = MoveProfile.start();
+        search.state.load(s);
+        MoveProfile.stop(search.profile, MoveProfile.COPY, s.nextPiece, start);
+        int bits = leafTableBits;
+        if (bits == 0) {
+            search.leafTable = null;
+        } else if (search.leafTable == null || search.leafTable.capacity() != 1 << bits) {
+            search.leafTable = new TranspositionTable(bits);
+        }
+    }
+
+    // value of making the given move with the next piece, looking the given
+    // number of plies ahead in total
+    private double evaluateCandidate(Search search, int piece, int[] move, int depth) {
+        TestState state = search.state;
+        long start = MoveProfile.start();
+        long sample = MoveProfile.sample(search.profile);
+        state.makeMove(piece, move[ORIENT], move[SLOT]);
+        MoveProfile.stop(search.profile, MoveProfile.MAKE_MOVE, piece, sample);
+        double value =
+            !state.lost && depth > 1 ? evaluateState(search, depth - 1) : cachedLeafValue(search, piece);
+        state.undoMove();
+        MoveProfile.stop(search.profile, MoveProfile.SUBTREE, piece, start);
+        return value;
+    }
+
+    // true once the deadline of the running level has passed
+    private boolean timeUp() {
+        if (!timedOut && deadline != NO_DEADLINE && System.nanoTime() > deadline) {
+            timedOut = true;
+        }
+        return timedOut;
+    }
+
     // Evaluate the value of the given state by going one layer deeper.
     // Given the board position, for each of the N_PIECES of tetrominos,
     // consider all
     // possible placements and rotations, and find the highest heuristic value
     // of all these resultant states of the particular tetromino. Find the
     // average max heuristic value across all N_PIECES tetrominos: this will be
-    // the evaluation value for the state
-    private double evaluateState(TestState state) {
+    // the evaluation value for the state. With more than one ply left, the
+    // resultant states are evaluated the same way instead of by the heuristic.
+    // A level that runs out of time returns a meaningless value, which is
+    // never cached.
+    private double evaluateState(Search search, int plies) {
+        TestState state = search.state;
+        long key = searchKey(state) ^ (plies * 0xC2B2AE3D27D4EB4FL);
+        double cached = search.stateTable.get(key);
+        if (!Double.isNaN(cached)) {
+            return cached;
+        }
+
         double sumLowerLevel = 0;
         for (int i = 0; i < N_PIECES; i++) {
+            if (timeUp()) {
+                return 0;
+            }
             double maxSoFar = Integer.MIN_VALUE;
             for (int j = 0; j < legalMoves[i].length; j++) {
-                TestState lowerState = new TestState(state);
-                lowerState.makeMove(i, legalMoves[i][j][ORIENT], legalMoves[i][j][SLOT]);
-                maxSoFar = Math.max(maxSoFar, evaluateOneLevelLower(lowerState));
+                long sample = MoveProfile.sample(search.profile);
+                state.makeMove(i, legalMoves[i][j][ORIENT], legalMoves[i][j][SLOT]);
+                MoveProfile.stop(search.profile, MoveProfile.MAKE_MOVE, i, sample);
+                double value =
+                    !state.lost && plies > 1 ? evaluateState(search, plies - 1) : cachedLeafValue(search, i);
+                maxSoFar = Math.max(maxSoFar, value);
+                state.undoMove();
 
             }
             sumLowerLevel += maxSoFar;
         }
 
-        return sumLowerLevel / N_PIECES;
+        double value = sumLowerLevel / N_PIECES;
+        if (!timedOut) {
+            search.stateTable.put(key, value);
+        }
+        return value;
+    }
+
+    // evaluateOneLevelLower through the leaf table, piece is the one placed
+    // last
+    private double cachedLeafValue(Search search, int piece) {
+        TestState state = search.state;
+        TranspositionTable leafTable = search.leafTable;
+        if (leafTable == null || state.lost) {
+            return evaluateLeaf(search, piece);
+        }
+        long key = searchKey(state);
+        double cached = leafTable.get(key);
+        if (!Double.isNaN(cached)) {
+            return cached;
+        }
+        double value = evaluateLeaf(search, piece);
+        leafTable.put(key, value);
+        return value;
+    }
+
+    private double evaluateLeaf(Search search, int piece) {
+        long sample = MoveProfile.sample(search.profile);
+        double value = evaluateOneLevelLower(search.state);
+        MoveProfile.stop(search.profile, MoveProfile.EVALUATE, piece, sample);
+        return value;
     }
 
+    // The rows cleared so far are part of every leaf value, so they are mixed
+    // into the board hash. Equal boards reached in one search always cleared
+    // the same number of rows.
+    private static long searchKey(TestState state) {
+        return state.board.getHash() ^ (state.rowsCleared * 0x9E3779B97F4A7C15L);
+    }
+
+    // transposition tables of the calling thread, for sizing them
+    public TranspositionTable getStateTable() {
+        return search.stateTable;
+    }
+
+    // null if leaves are not cached
+    public TranspositionTable getLeafTable() {
+        return search.leafTable;
+    }
+
+    // an idle worker Search, or a new one if every one is in use
+    private Search checkOut() {
+        Search search = idleSearches.poll();
+        if (search == null) {
+            search = new Search();
+            synchronized (searches) {
+                searches.add(search);
+            }
+        }
+        return search;
+    }
+
+    // Give every search a leaf table with 2^bits slots from the next pickMove
+    // on, or stop caching leaves with 0.
+    public void setLeafTableBits(int bits) {
+        leafTableBits = bits;
+    }
+
+    // Phase timings of every search so far, see MoveProfile. Empty unless
+    // profiling is enabled. Any thread may take one, even during a search.
+    public MoveProfile profileSnapshot() {
+        MoveProfile total = new MoveProfile();
+        if (MoveProfile.ENABLED) {
+            total.add(search.profile);
+            synchronized (searches) {
+                for (Search workerSearch : searches) {
+                    total.add(workerSearch.profile);
+                }
+            }
+        }
+        return total;
+    }
+
+    // counters of the tables of every search, one line per Search
+    public String tableStats() {
+        StringBuilder stats = new StringBuilder(search.toString());
+        synchronized (searches) {
+            for (Search workerSearch : searches) {
+                stats.append('\n').append(workerSearch);
+            }
+        }
+        return stats.toString();
+    }
     // Evaluate the state given features to be tested and weights. Apply
     // heuristic function.
     private double evaluateOneLevelLower(TestState state) {
+        double[] f = state.extractFeatures();
 
         double h =
-            -numHoles(state) * NUM_HOLES_WEIGHT + numRowsCleared(state) * COMPLETE_LINES_WEIGHT
-                + -heightVariationSum(state) * HEIGHT_VAR_WEIGHT + lostStateValue(state) * LOST_WEIGHT
-                + -maxHeight(state) * MAX_HEIGHT_WEIGHT + -pitDepthValue(state) * PIT_DEPTH_WEIGHT
-                + -meanHeightDiffValue(state) * MEAN_HEIGHT_DIFF_WEIGHT;
+            -numHoles(f) * weights.numHoles + numRowsCleared(f) * weights.completeLines
+                + -heightVariationSum(f) * weights.heightVar + lostStateValue(f) * weights.lost
+                + -maxHeight(f) * weights.maxHeight + -pitDepthValue(f) * weights.pitDepth
+                + -meanHeightDiffValue(f) * weights.meanHeightDiff;
         return h;
     }
 
@@ -181,118 +568,57 @@ public class PlayerSkeleton {
      * ===================== Features calculations =====================
      */
 
+    // Every feature is extracted from the board in one pass by Features, these
+    // are views of the feature vector.
+
     // By default, set the lost state value as -10
-    private int lostStateValue(TestState state) {
-        return hasLost(state) ? -10 : 0;
+    private static int lostStateValue(double[] f) {
+        return hasLost(f) ? -10 : 0;
     }
 
     // The highest column in the board
-    private static int maxHeight(TestState s) {
-        int[] top = s.top;
-        int maxSoFar = -1;
-        for (int i : top) {
-            maxSoFar = Math.max(maxSoFar, i);
-        }
-
-        return maxSoFar;
+    private static double maxHeight(double[] f) {
+        return f[Features.MAX_HEIGHT];
     }
 
     // Holes are defined as all empty cells that are below the top of each
     // column.
-    private static int numHoles(TestState s) {
-        int[][] field = s.field;
-        int sumHoles = 0;
-        for (int col = 0; col < COLS; col++) {
-            for (int row = 0; row < s.top[col] - 1; row++) {
-                if (field[row][col] == 0) {
-                    sumHoles++;
-                }
-            }
-        }
-        return sumHoles;
+    private static double numHoles(double[] f) {
+        return f[Features.HOLES];
     }
 
-    private static int numRowsCleared(TestState s) {
-        return s.rowsCleared;
+    private static double numRowsCleared(double[] f) {
+        return f[Features.ROWS_CLEARED];
     }
 
     // summing up the differences of adjacent column heights
-    private static int heightVariationSum(TestState s) {
-        int[] top = s.top;
-        int varSum = 0;
-        for (int i = 0; i < top.length - 1; i++) {
-            varSum += Math.abs(top[i] - top[i + 1]);
-        }
-
-        return varSum;
+    private static double heightVariationSum(double[] f) {
+        return f[Features.BUMPINESS];
     }
 
-    private static boolean hasLost(TestState s) {
-        return s.lost;
+    private static boolean hasLost(double[] f) {
+        return f[Features.LOST] != 0;
     }
 
     // The sum of all pit depths. A pit is defined as the difference in height
     // between a column and its two adjacent columns, with a minimum difference
     // of 3.
     public double pitDepthValue(TestState s) {
-        int[] top = s.top;
-        int pitDepthSum = 0;
-
-        int pitColHeight;
-        int leftColHeight;
-        int rightColHeight;
-
-        // pit depth of first column
-        pitColHeight = top[0];
-        rightColHeight = top[1];
-        int diff = rightColHeight - pitColHeight;
-        if (diff > 2) {
-            pitDepthSum += diff;
-        }
-
-        for (int col = 0; col < State.COLS - 2; col++) {
-            leftColHeight = top[col];
-            pitColHeight = top[col + 1];
-            rightColHeight = top[col + 2];
-
-            int leftDiff = leftColHeight - pitColHeight;
-            int rightDiff = rightColHeight - pitColHeight;
-            int minDiff = Math.min(leftDiff, rightDiff);
-            if (minDiff > 2) {
-                pitDepthSum += minDiff;
-            }
-        }
-
-        // pit depth of last column
-        pitColHeight = top[State.COLS - 1];
-        leftColHeight = top[State.COLS - 2];
-        diff = leftColHeight - pitColHeight;
-        if (diff > 2) {
-            pitDepthSum += diff;
-        }
-
-        return pitDepthSum;
+        return pitDepthValue(s.extractFeatures());
+    }
 
+    private static double pitDepthValue(double[] f) {
+        return f[Features.PIT_DEPTHS];
     }
 
     // The mean height difference is the average of all height differences
     // between each adjacent columns
     public double meanHeightDiffValue(TestState s) {
-        int[] top = s.top;
-
-        int sum = 0;
-        for (int height : top) {
-            sum += height;
-        }
-
-        float meanHeight = (float) sum / top.length;
-
-        float avgDiff = 0;
-        for (int height : top) {
-            avgDiff += Math.abs(meanHeight - height);
-        }
+        return meanHeightDiffValue(s.extractFeatures());
+    }
 
-        return avgDiff / top.length;
+    private static double meanHeightDiffValue(double[] f) {
+        return f[Features.MEAN_HEIGHT_DIFF];
     }
 
     public static void main(String[] args) {
@@ -302,29 +628,44 @@ public class PlayerSkeleton {
         double[] weights =
             {1.7851855342334024, 1.4138726176225629, 0.3567297944529728, 0.6249287636118577, 0.051962392158941606,
                 0.52385888919136, 0.12090744319379954};
-        PlayerSkeleton p = new PlayerSkeleton(weights);
-        while (!s.lost) {
-            s.makeMove(p.pickMove(s, s.legalMoves()));
-            // System.out.println(s.getRowsCleared());
+        ForkJoinPool forkJoinPool = new ForkJoinPool();
+        PlayerSkeleton p = new PlayerSkeleton(weights, forkJoinPool);
+        try {
+            while (!s.lost) {
+                s.makeMove(p.pickMove(s, s.legalMoves()));
+                // System.out.println(s.getRowsCleared());
+            }
+        } finally {
+            forkJoinPool.shutdown();
         }
         System.out.println("You have completed " + s.getRowsCleared() + " rows.");
     }
 
     public PlayerSkeleton(double[] weights) {
-        NUM_HOLES_WEIGHT = weights[0];
-        COMPLETE_LINES_WEIGHT = weights[1];
-        HEIGHT_VAR_WEIGHT = weights[2];
-        LOST_WEIGHT = weights[3];
-        MAX_HEIGHT_WEIGHT = weights[4];
-        PIT_DEPTH_WEIGHT = weights[5];
-        MEAN_HEIGHT_DIFF_WEIGHT = weights[6];
+        this(weights, null);
+    }
+
+    // search the candidate moves in parallel on the given pool
+    public PlayerSkeleton(double[] weights, ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+        this.weights = new Weights(weights);
 
     }
 
+    public Weights getWeights() {
+        return weights;
+    }
+
     // This method is used to train the agent via a genetic algorithm
     public int run() {
+        return run(PieceSource.random());
+    }
 
-        State s = new State();
+    // Play one game on the given pieces, so that several players can be
+    // compared on the same sequence
+    public int run(PieceSource pieces) {
+
+        State s = new State(pieces);
         while (!s.lost) {
             s.makeMove(pickMove(s, s.legalMoves()));
             // if (s.getRowsCleared() % 100000 == 0) {
@@ -343,58 +684,12 @@ public class PlayerSkeleton {
     public static final int ROWS = State.ROWS;
     public static final int N_PIECES = State.N_PIECES;
     // all legal moves - first index is piece type - then a list of 2-length
-    // arrays
-    protected static int[][][] legalMoves = new int[N_PIECES][][];
+    // arrays, shared with State through PlacementTables
+    // legalMoves[piece type][num legal moves][tuple of orient and slot]
+    protected static final int[][][] legalMoves = PlacementTables.LEGAL_MOVES;
 
     // indices for legalMoves
-    public static final int ORIENT = 0;
-    public static final int SLOT = 1;
-
-    // possible orientations for a given piece type
-    protected static int[] pOrients = {1, 2, 4, 4, 4, 2, 2};
-
-    // the next several arrays define the piece vocabulary in detail
-    // width of the pieces [piece ID][orientation]
-    protected static int[][] pWidth = { {2}, {1, 4}, {2, 3, 2, 3}, {2, 3, 2, 3}, {2, 3, 2, 3}, {3, 2}, {3, 2}};
-    // height of the pieces [piece ID][orientation]
-    private static int[][] pHeight = { {2}, // square
-        {4, 1}, // vertical piece
-        {3, 2, 3, 2}, // L
-        {3, 2, 3, 2}, //
-        {3, 2, 3, 2}, // T
-        {2, 3}, {2, 3}};
-    private static int[][][] pBottom = { {{0, 0}}, { {0}, {0, 0, 0, 0}},
-        { {0, 0}, {0, 1, 1}, {2, 0}, {0, 0, 0}}, // L,
-        { {0, 0}, {0, 0, 0}, {0, 2}, {1, 1, 0}}, { {0, 1}, {1, 0, 1}, {1, 0}, {0, 0, 0}}, { {0, 0, 1}, {1, 0}},
-        { {1, 0, 0}, {0, 1}}};
-    private static int[][][] pTop = { {{2, 2}}, { {4}, {1, 1, 1, 1}}, { {3, 1}, {2, 2, 2}, {3, 3}, {1, 1, 2}},
-        { {1, 3}, {2, 1, 1}, {3, 3}, {2, 2, 2}}, { {3, 2}, {2, 2, 2}, {2, 3}, {1, 2, 1}}, { {1, 2, 2}, {3, 2}},
-        { {2, 2, 1}, {2, 3}}};
-
-    // initialize legalMoves
-    // legalMoves[piece type][num legal moves][tuple of orient and slot]
-    {
-        // for each piece type
-        for (int i = 0; i < N_PIECES; i++) {
-            // figure number of legal moves
-            int n = 0;
-            for (int j = 0; j < pOrients[i]; j++) {
-                // number of locations in this orientation
-                n += COLS + 1 - pWidth[i][j];
-            }
-            // allocate space
-            legalMoves[i] = new int[n][2];
-            // for each orientation
-            n = 0;
-            for (int j = 0; j < pOrients[i]; j++) {
-                // for each slot
-                for (int k = 0; k < COLS + 1 - pWidth[i][j]; k++) {
-                    legalMoves[i][n][ORIENT] = j;
-                    legalMoves[i][n][SLOT] = k;
-                    n++;
-                }
-            }
-        }
-    }
+    public static final int ORIENT = PlacementTables.ORIENT;
+    public static final int SLOT = PlacementTables.SLOT;
 
 }
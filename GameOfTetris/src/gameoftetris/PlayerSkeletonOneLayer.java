@@ -9,106 +9,97 @@ import java.util.Arrays;
 public class PlayerSkeletonOneLayer {
 
     // public static double HEIGHT_SUM_WEIGHT = 0.51f;
-    public static double NUM_HOLES_WEIGHT;
-    public static double COMPLETE_LINES_WEIGHT;
-    public static double HEIGHT_VAR_WEIGHT;
-    public static double LOST_WEIGHT;
-    public static double MAX_HEIGHT_WEIGHT;
-    public static double PIT_DEPTH_WEIGHT;
-    public static double MEAN_HEIGHT_DIFF_WEIGHT;
+    // weights of this player only, see Weights
+    private final Weights weights;
 
     public static class TestState {
-        int[][] field;
+        BitBoard board;
         int[] top;
         int turn;
         int rowsCleared;
         boolean lost = false;
 
+        // Undo journal, one frame per move made and not yet undone. A frame
+        // is the MoveKernel journal of the move followed by the previous lost
+        // flag and rows cleared. It grows if more moves are stacked up than
+        // the search normally needs.
+        private static final int INITIAL_DEPTH = 4;
+        private static final int J_LOST = MoveKernel.JOURNAL_SIZE;
+        private static final int J_ROWS_CLEARED = MoveKernel.JOURNAL_SIZE + 1;
+        private static final int FRAME = MoveKernel.JOURNAL_SIZE + 2;
+        private int[] journal = new int[INITIAL_DEPTH * FRAME];
+        private int depth = 0;
+        // feature vector of the board, refilled by extractFeatures
+        private final double[] features = new double[Features.COUNT];
+
+        public TestState() {
+            this.board = new BitBoard();
+            this.top = board.top;
+        }
+
         public TestState(State s) {
-            this.field = cloneField(s.getField());
-            this.top = Arrays.copyOf(s.getTop(), s.getTop().length);
-            this.turn = s.getTurnNumber();
-            this.rowsCleared = s.getRowsCleared();
+            this();
+            load(s);
+        }
+
+        // reset this state to a copy of the given one, dropping the journal
+        public void load(State s) {
+            board.copyFrom(s.getBoard());
+            turn = s.getTurnNumber();
+            rowsCleared = s.getRowsCleared();
+            lost = false;
+            depth = 0;
         }
 
         public TestState(TestState s) {
-            this.field = cloneField(s.field);
-            this.top = Arrays.copyOf(s.top, s.top.length);
+            this.board = new BitBoard(s.board);
+            this.top = board.top;
             this.turn = s.turn;
             this.rowsCleared = s.rowsCleared;
         }
 
-        private int[][] cloneField(int[][] field) {
-            int[][] newField = new int[field.length][];
-            for (int i = 0; i < newField.length; i++) {
-                newField[i] = Arrays.copyOf(field[i], field[i].length);
-            }
-            return newField;
-        }
-
         // returns false if you lose - true otherwise
         public boolean makeMove(int piece, int orient, int slot) {
-            // height if the first column makes contact
-            int height = top[slot] - pBottom[piece][orient][0];
-            // for each column beyond the first in the piece
-            for (int c = 1; c < pWidth[piece][orient]; c++) {
-                height = Math.max(height, top[slot + c] - pBottom[piece][orient][c]);
+            int frame = depth * FRAME;
+            if (frame == journal.length) {
+                journal = Arrays.copyOf(journal, journal.length * 2);
             }
+            journal[frame + J_LOST] = lost ? 1 : 0;
+            journal[frame + J_ROWS_CLEARED] = rowsCleared;
+            depth++;
 
+            int cleared = board.place(PlacementTables.moveId(piece, orient, slot), journal, frame);
             // check if game ended
-            if (height + pHeight[piece][orient] >= ROWS) {
+            if (cleared == MoveKernel.LOST) {
                 lost = true;
                 return false;
             }
+            return true;
+        }
 
-            // for each column in the piece - fill in the appropriate blocks
-            for (int i = 0; i < pWidth[piece][orient]; i++) {
-
-                // from bottom to top of brick
-                for (int h = height + pBottom[piece][orient][i]; h < height + pTop[piece][orient][i]; h++) {
-                    field[h][i + slot] = turn;
-                }
-            }
-
-            // adjust top
-            for (int c = 0; c < pWidth[piece][orient]; c++) {
-                top[slot + c] = height + pTop[piece][orient][c];
-            }
+        // every feature of the current board, see Features. The vector is
+        // reused by the next call.
+        public double[] extractFeatures() {
+            Features.extract(board, rowsCleared, lost, features);
+            return features;
+        }
 
-            int rowsCleared = 0;
-
-            // check for full rows - starting at the top
-            for (int r = height + pHeight[piece][orient] - 1; r >= height; r--) {
-                // check all columns in the row
-                boolean full = true;
-                for (int c = 0; c < COLS; c++) {
-                    if (field[r][c] == 0) {
-                        full = false;
-                        break;
-                    }
-                }
-                // if the row was full - remove it and slide above stuff down
-                if (full) {
-                    rowsCleared++;
-                    // for each column
-                    for (int c = 0; c < COLS; c++) {
-
-                        // slide down all bricks
-                        for (int i = r; i < top[c]; i++) {
-                            field[i][c] = field[i + 1][c];
-                        }
-                        // lower the top
-                        top[c]--;
-                        while (top[c] >= 1 && field[top[c] - 1][c] == 0)
-                            top[c]--;
-                    }
-                }
-            }
-            return true;
+        // take back the last move made, restoring the exact previous state
+        public void undoMove() {
+            depth--;
+            int frame = depth * FRAME;
+            board.undo(journal, frame);
+            lost = journal[frame + J_LOST] != 0;
+            rowsCleared = journal[frame + J_ROWS_CLEARED];
         }
 
     }
 
+    // Board the search runs on. It is reloaded from the game state on every
+    // pickMove, and candidate moves are made and then undone on it instead of
+    // copying it once per candidate.
+    private final TestState searchState = new TestState();
+
     // implement this function to have a working system
     public int pickMove(State s, int[][] legalMoves) {
         // Explore legalMoves.length new states
@@ -116,14 +107,14 @@ public class PlayerSkeletonOneLayer {
         // each one of n moves contain orientation as index 0 and slot as index
         // 1
         double bestValueSoFar = -1;
-        TestState bestStateSoFar = null;
         int bestMoveSoFar = 0;
+        TestState state = searchState;
+        state.load(s);
         for (int i = 0; i < legalMoves.length; i++) {
-            TestState state = new TestState(s);
             state.makeMove(s.nextPiece, legalMoves[i][ORIENT], legalMoves[i][SLOT]);
             double value = evaluateOneLevelLower(state);
-            if (value > bestValueSoFar || bestStateSoFar == null) {
-                bestStateSoFar = state;
+            state.undoMove();
+            if (value > bestValueSoFar || i == 0) {
                 bestValueSoFar = value;
                 bestMoveSoFar = i;
             }
@@ -137,9 +128,9 @@ public class PlayerSkeletonOneLayer {
         for (int i = 0; i < N_PIECES; i++) {
             double maxSoFar = Integer.MIN_VALUE;
             for (int j = 0; j < legalMoves[i].length; j++) {
-                TestState lowerState = new TestState(state);
-                lowerState.makeMove(i, legalMoves[i][j][ORIENT], legalMoves[i][j][SLOT]);
-                maxSoFar = Math.max(maxSoFar, evaluateOneLevelLower(lowerState));
+                state.makeMove(i, legalMoves[i][j][ORIENT], legalMoves[i][j][SLOT]);
+                maxSoFar = Math.max(maxSoFar, evaluateOneLevelLower(state));
+                state.undoMove();
 
             }
             sumLowerLevel += maxSoFar;
@@ -149,70 +140,46 @@ public class PlayerSkeletonOneLayer {
     }
 
     private double evaluateOneLevelLower(TestState state) {
+        double[] f = state.extractFeatures();
         // Evaluate the state given features to be tested and weights
 
         double h =
             /*-heightSum(state) * HEIGHT_SUM_WEIGHT + */
-            -numHoles(state) * NUM_HOLES_WEIGHT + numRowsCleared(state) * COMPLETE_LINES_WEIGHT
-                + -heightVariationSum(state) * HEIGHT_VAR_WEIGHT + lostStateValue(state) * LOST_WEIGHT
-                + -maxHeight(state) * MAX_HEIGHT_WEIGHT + -pitDepthValue(state) * PIT_DEPTH_WEIGHT
-                + -meanHeightDiffValue(state) * MEAN_HEIGHT_DIFF_WEIGHT;
+            -numHoles(f) * weights.numHoles + numRowsCleared(f) * weights.completeLines
+                + -heightVariationSum(f) * weights.heightVar + lostStateValue(f) * weights.lost
+                + -maxHeight(f) * weights.maxHeight + -pitDepthValue(f) * weights.pitDepth
+                + -meanHeightDiffValue(f) * weights.meanHeightDiff;
         return h;
     }
 
-    private int lostStateValue(TestState state) {
-        return hasLost(state) ? -10 : 0;
-    }
+    // Views of the feature vector extracted by Features
 
-    private static int heightSum(TestState s) {
-        int[] top = s.top;
-        int sum = 0;
-        for (int height : top) {
-            sum += height;
-        }
-
-        return sum;
+    private static int lostStateValue(double[] f) {
+        return hasLost(f) ? -10 : 0;
     }
 
-    private static int maxHeight(TestState s) {
-        int[] top = s.top;
-        int maxSoFar = -1;
-        for (int i : top) {
-            maxSoFar = Math.max(maxSoFar, i);
-        }
-
-        return maxSoFar;
+    private static double heightSum(double[] f) {
+        return f[Features.HEIGHT_SUM];
     }
 
-    private static int numHoles(TestState s) {
-        int[][] field = s.field;
-        int sumHoles = 0;
-        for (int col = 0; col < COLS; col++) {
-            for (int row = 0; row < s.top[col] - 1; row++) {
-                if (field[row][col] == 0) {
-                    sumHoles++;
-                }
-            }
-        }
-        return sumHoles;
+    private static double maxHeight(double[] f) {
+        return f[Features.MAX_HEIGHT];
     }
 
-    private static int numRowsCleared(TestState s) {
-        return s.rowsCleared;
+    private static double numHoles(double[] f) {
+        return f[Features.HOLES];
     }
 
-    private static int heightVariationSum(TestState s) {
-        int[] top = s.top;
-        int varSum = 0;
-        for (int i = 0; i < top.length - 1; i++) {
-            varSum += Math.abs(top[i] - top[i + 1]);
-        }
+    private static double numRowsCleared(double[] f) {
+        return f[Features.ROWS_CLEARED];
+    }
 
-        return varSum;
+    private static double heightVariationSum(double[] f) {
+        return f[Features.BUMPINESS];
     }
 
-    private static boolean hasLost(TestState s) {
-        return s.lost;
+    private static boolean hasLost(double[] f) {
+        return f[Features.LOST] != 0;
     }
 
     // Depth of pits, a pit is a column with adjacent columns higher by at least
@@ -220,65 +187,21 @@ public class PlayerSkeletonOneLayer {
     // is defined as the difference between the height of the pit column and the
     // shortest adjacent column.
     public double pitDepthValue(TestState s) {
-        int[] top = s.top;
-        int sumOfPitDepths = 0;
-
-        int pitHeight;
-        int leftOfPitHeight;
-        int rightOfPitHeight;
-
-        // pit depth of first column
-        pitHeight = top[0];
-        rightOfPitHeight = top[1];
-        int diff = rightOfPitHeight - pitHeight;
-        if (diff > 2) {
-            sumOfPitDepths += diff;
-        }
-
-        for (int col = 0; col < State.COLS - 2; col++) {
-            leftOfPitHeight = top[col];
-            pitHeight = top[col + 1];
-            rightOfPitHeight = top[col + 2];
-
-            int leftDiff = leftOfPitHeight - pitHeight;
-            int rightDiff = rightOfPitHeight - pitHeight;
-            int minDiff = leftDiff < rightDiff ? leftDiff : rightDiff;
-
-            if (minDiff > 2) {
-                sumOfPitDepths += minDiff;
-            }
-        }
-
-        // pit depth of last column
-        pitHeight = top[State.COLS - 1];
-        leftOfPitHeight = top[State.COLS - 2];
-        diff = leftOfPitHeight - pitHeight;
-        if (diff > 2) {
-            sumOfPitDepths += diff;
-        }
-
-        return sumOfPitDepths;
+        return pitDepthValue(s.extractFeatures());
+    }
 
+    private static double pitDepthValue(double[] f) {
+        return f[Features.PIT_DEPTHS];
     }
 
     // Mean height difference, the average of the difference between the height
     // of each column and the mean height of the state.
     public double meanHeightDiffValue(TestState s) {
-        int[] top = s.top;
-
-        int sum = 0;
-        for (int height : top) {
-            sum += height;
-        }
-
-        float meanHeight = (float) sum / top.length;
-
-        float avgDiff = 0;
-        for (int height : top) {
-            avgDiff += Math.abs(meanHeight - height);
-        }
+        return meanHeightDiffValue(s.extractFeatures());
+    }
 
-        return avgDiff / top.length;
+    private static double meanHeightDiffValue(double[] f) {
+        return f[Features.MEAN_HEIGHT_DIFF];
     }
 
     public static void main(String[] args) {
@@ -307,22 +230,28 @@ public class PlayerSkeletonOneLayer {
     }
 
     public PlayerSkeletonOneLayer(double[] weights) {
-        NUM_HOLES_WEIGHT = weights[0];
-        COMPLETE_LINES_WEIGHT = weights[1];
-        HEIGHT_VAR_WEIGHT = weights[2];
-        LOST_WEIGHT = weights[3];
-        MAX_HEIGHT_WEIGHT = weights[4];
-        PIT_DEPTH_WEIGHT = weights[5];
-        MEAN_HEIGHT_DIFF_WEIGHT = weights[6];
+        this.weights = new Weights(weights);
 
     }
 
+    // a player with every weight 0
     public PlayerSkeletonOneLayer() {
+        this(new double[Weights.SIZE]);
+    }
+
+    public Weights getWeights() {
+        return weights;
     }
 
     public int run() {
+        return run(PieceSource.random());
+    }
 
-        State s = new State();
+    // Play one game on the given pieces, so that several players can be
+    // compared on the same sequence
+    public int run(PieceSource pieces) {
+
+        State s = new State(pieces);
         while (!s.lost) {
             s.makeMove(pickMove(s, s.legalMoves()));
             // if (s.getRowsCleared() % 100000 == 0) {
@@ -338,58 +267,12 @@ public class PlayerSkeletonOneLayer {
     public static final int ROWS = State.ROWS;
     public static final int N_PIECES = State.N_PIECES;
     // all legal moves - first index is piece type - then a list of 2-length
-    // arrays
-    protected static int[][][] legalMoves = new int[N_PIECES][][];
+    // arrays, shared with State through PlacementTables
+    // legalMoves[piece type][num legal moves][tuple of orient and slot]
+    protected static final int[][][] legalMoves = PlacementTables.LEGAL_MOVES;
 
     // indices for legalMoves
-    public static final int ORIENT = 0;
-    public static final int SLOT = 1;
-
-    // possible orientations for a given piece type
-    protected static int[] pOrients = {1, 2, 4, 4, 4, 2, 2};
-
-    // the next several arrays define the piece vocabulary in detail
-    // width of the pieces [piece ID][orientation]
-    protected static int[][] pWidth = { {2}, {1, 4}, {2, 3, 2, 3}, {2, 3, 2, 3}, {2, 3, 2, 3}, {3, 2}, {3, 2}};
-    // height of the pieces [piece ID][orientation]
-    private static int[][] pHeight = { {2}, // square
-        {4, 1}, // vertical piece
-        {3, 2, 3, 2}, // L
-        {3, 2, 3, 2}, //
-        {3, 2, 3, 2}, // T
-        {2, 3}, {2, 3}};
-    private static int[][][] pBottom = { {{0, 0}}, { {0}, {0, 0, 0, 0}},
-        { {0, 0}, {0, 1, 1}, {2, 0}, {0, 0, 0}}, // L,
-        { {0, 0}, {0, 0, 0}, {0, 2}, {1, 1, 0}}, { {0, 1}, {1, 0, 1}, {1, 0}, {0, 0, 0}}, { {0, 0, 1}, {1, 0}},
-        { {1, 0, 0}, {0, 1}}};
-    private static int[][][] pTop = { {{2, 2}}, { {4}, {1, 1, 1, 1}}, { {3, 1}, {2, 2, 2}, {3, 3}, {1, 1, 2}},
-        { {1, 3}, {2, 1, 1}, {3, 3}, {2, 2, 2}}, { {3, 2}, {2, 2, 2}, {2, 3}, {1, 2, 1}}, { {1, 2, 2}, {3, 2}},
-        { {2, 2, 1}, {2, 3}}};
-
-    // initialize legalMoves
-    // legalMoves[piece type][num legal moves][tuple of orient and slot]
-    {
-        // for each piece type
-        for (int i = 0; i < N_PIECES; i++) {
-            // figure number of legal moves
-            int n = 0;
-            for (int j = 0; j < pOrients[i]; j++) {
-                // number of locations in this orientation
-                n += COLS + 1 - pWidth[i][j];
-            }
-            // allocate space
-            legalMoves[i] = new int[n][2];
-            // for each orientation
-            n = 0;
-            for (int j = 0; j < pOrients[i]; j++) {
-                // for each slot
-                for (int k = 0; k < COLS + 1 - pWidth[i][j]; k++) {
-                    legalMoves[i][n][ORIENT] = j;
-                    legalMoves[i][n][SLOT] = k;
-                    n++;
-                }
-            }
-        }
-    }
+    public static final int ORIENT = PlacementTables.ORIENT;
+    public static final int SLOT = PlacementTables.SLOT;
 
 }
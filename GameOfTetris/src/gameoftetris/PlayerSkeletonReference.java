@@ -1,5 +1,4 @@
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
@@ -13,7 +12,7 @@ public class PlayerSkeletonReference {
     private static final float pitDepthsWeight = 1.2f;
     private static final float meanHeightDifferenceWeight = 0.85f;
 
-    private MoveEvaluator evaluator;
+    private CompiledEvaluator evaluator;
     private MapReduce mapReduce;
     private ArrayList<Move> possibleMoves = new ArrayList<Move>();
 
@@ -78,12 +77,12 @@ public class PlayerSkeletonReference {
         float[] weights = new float[] {363.5092f, 194.57817f, 188.69507f, 943.2513f, 396.27356f, 512.3429f, 604.4724f};
         // { 587.5112f, 438.03345f, 474.9645f, 939.3418f, 408.60773f, 815.7669f
         // };
-        this.evaluator = new WeightedSumEvaluator(EVALUATORS, weights);
+        this.evaluator = new CompiledEvaluator(EVALUATORS, weights);
     }
 
     public PlayerSkeletonReference(ForkJoinPool forkJoinPool, float[] weights) {
         this.mapReduce = new MapReduce(forkJoinPool);
-        this.evaluator = new WeightedSumEvaluator(EVALUATORS, weights);
+        this.evaluator = new CompiledEvaluator(EVALUATORS, weights);
     }
 
     public int pickMove(State s, int[][] legalMoves) {
@@ -118,7 +117,7 @@ public class PlayerSkeletonReference {
         public EvaluationResult map(Move move) {
             ImmutableState state = move.getState();
             MoveResult moveResult = state.move(move.getPiece(), move.getOrientation(), move.getPosition());
-            float score = evaluator.map(moveResult);
+            float score = evaluator.score(moveResult);
             return new EvaluationResult(move.getIndex(), score);
         }
     };
@@ -169,154 +168,157 @@ public class PlayerSkeletonReference {
     }
 
     /**
-     * Doesn't do anything, just return 0 for testing purposes
+     * An evaluator whose score is linear in one entry of the Features vector
+     * of the move: scale * features[feature] + offset. A weighted sum of them
+     * compiles into a single CompiledEvaluator.
      */
-    public static class DummyEvaluator implements MoveEvaluator {
-        @Override
-        public Float map(MoveResult moveResult) {
-            return 0.0f;
+    public static abstract class LinearEvaluator implements MoveEvaluator {
+        protected LinearEvaluator(int feature, float scale, float offset) {
+            this.feature = feature;
+            this.scale = scale;
+            this.offset = offset;
         }
-    }
 
-    // Not in use
-    public static class NumWells implements MoveEvaluator {
         @Override
         public Float map(MoveResult moveResult) {
-            int[] top = moveResult.getState().getTop();
-
-            int numWells = 0;
+            return scale * (float) moveResult.getFeatures()[feature] + offset;
+        }
 
-            for (int column = 1; column < top.length - 1; ++column) {
-                if (top[column - 1] < top[column] && top[column] < top[column + 1]) {
-                    ++numWells;
-                }
-            }
+        public int getFeature() {
+            return feature;
+        }
 
-            if (top[0] < top[1])
-                ++numWells;
-            if (top[top.length - 1] < top[top.length - 2])
-                ++numWells;
+        public float getScale() {
+            return scale;
+        }
 
-            return -(float) numWells;
+        public float getOffset() {
+            return offset;
         }
-    }
 
-    // Not in use
-    public static class DeepestWell implements MoveEvaluator {
-        @Override
-        public Float map(MoveResult moveResult) {
-            int maxDepth = Integer.MIN_VALUE;
-            int[] top = moveResult.getState().getTop();
+        private final int feature;
+        private final float scale;
+        private final float offset;
+    }
 
-            for (int column = 1; column < top.length - 1; ++column) {
-                if (top[column - 1] < top[column] && top[column] < top[column + 1]) {
-                    int depth = Math.max(top[column] - top[column - 1], top[column + 1] - top[column]);
-                    maxDepth = Math.max(maxDepth, depth);
+    /**
+     * A weighted sum of evaluators compiled once per weight vector. The
+     * LinearEvaluators fold into one coefficient per feature and a constant,
+     * so scoring a move is a dot product with its feature vector, without
+     * boxing or a call per evaluator. Any other evaluator is kept as is and
+     * still called through map.
+     */
+    public static class CompiledEvaluator implements MoveEvaluator {
+        public CompiledEvaluator(MoveEvaluator[] evaluators, float[] weights) {
+            ArrayList<MoveEvaluator> others = new ArrayList<MoveEvaluator>();
+            ArrayList<Float> otherWeights = new ArrayList<Float>();
+            float constant = 0;
+            for (int i = 0; i < evaluators.length; ++i) {
+                if (evaluators[i] instanceof LinearEvaluator) {
+                    LinearEvaluator linear = (LinearEvaluator) evaluators[i];
+                    coefficients[linear.getFeature()] += linear.getScale() * weights[i];
+                    constant += linear.getOffset() * weights[i];
+                } else {
+                    others.add(evaluators[i]);
+                    otherWeights.add(weights[i]);
                 }
             }
-
-            if (top[0] < top[1]) {
-                maxDepth = Math.max(maxDepth, top[1] - top[0]);
+            this.constant = constant;
+            this.others = others.toArray(new MoveEvaluator[others.size()]);
+            this.otherWeights = new float[otherWeights.size()];
+            for (int i = 0; i < this.otherWeights.length; ++i) {
+                this.otherWeights[i] = otherWeights.get(i);
             }
+        }
 
-            if (top[top.length - 1] < top[top.length - 2]) {
-                maxDepth = Math.max(maxDepth, top[top.length - 2] - top[top.length - 1]);
+        public float score(MoveResult moveResult) {
+            double[] features = moveResult.getFeatures();
+            float sum = constant;
+            for (int i = 0; i < Features.COUNT; ++i) {
+                sum += coefficients[i] * (float) features[i];
+            }
+            for (int i = 0; i < others.length; ++i) {
+                sum += others[i].map(moveResult) * otherWeights[i];
             }
+            return sum;
+        }
 
-            return -(float) maxDepth;
+        @Override
+        public Float map(MoveResult moveResult) {
+            return score(moveResult);
         }
+
+        private final float[] coefficients = new float[Features.COUNT];
+        private final float constant;
+        private final MoveEvaluator[] others;
+        private final float[] otherWeights;
     }
 
-    // Not in use
-    public static class MeanHeight implements MoveEvaluator {
+    /**
+     * Doesn't do anything, just return 0 for testing purposes
+     */
+    public static class DummyEvaluator implements MoveEvaluator {
         @Override
-        public Float map(MoveResult result) {
-            int[] top = result.getState().getTop();
+        public Float map(MoveResult moveResult) {
+            return 0.0f;
+        }
+    }
 
-            int sum = 0;
-            for (int height : top) {
-                sum += height;
-            }
+    // Not in use
+    public static class NumWells extends LinearEvaluator {
+        public NumWells() {
+            super(Features.NUM_WELLS, -1, 0);
+        }
+    }
+
+    // Not in use
+    public static class DeepestWell extends LinearEvaluator {
+        public DeepestWell() {
+            super(Features.DEEPEST_WELL, -1, 0);
+        }
+    }
 
-            return -(float) sum / top.length;
+    // Not in use
+    public static class MeanHeight extends LinearEvaluator {
+        public MeanHeight() {
+            super(Features.HEIGHT_SUM, -1.0f / State.COLS, 0);
         }
     }
 
     // Mean height difference, the average of the difference between the height
     // of each column and the mean height of the state.
-    public static class MeanHeightDifference implements MoveEvaluator {
-        @Override
-        public Float map(MoveResult result) {
-            int[] top = result.getState().getTop();
-
-            int sum = 0;
-            for (int height : top) {
-                sum += height;
-            }
-
-            float meanHeight = (float) sum / top.length;
-
-            float avgDiff = 0;
-            for (int height : top) {
-                avgDiff += Math.abs(meanHeight - height);
-            }
-
-            return -(avgDiff / top.length) * meanHeightDifferenceWeight;
+    public static class MeanHeightDifference extends LinearEvaluator {
+        public MeanHeightDifference() {
+            super(Features.MEAN_HEIGHT_DIFF, -meanHeightDifferenceWeight, 0);
         }
     }
 
     // The maximum column height of the state.
-    public static class MaxColumnHeight implements MoveEvaluator {
-        @Override
-        public Float map(MoveResult result) {
-            int[] top = result.getState().getTop();
-
-            int maxHeight = Integer.MIN_VALUE;
-            for (int column = 0; column < top.length; ++column) {
-                int height = top[column];
-                if (height > maxHeight) {
-                    maxHeight = height;
-                }
-            }
-
-            return -(float) maxHeight * maxColumnHeightWeight;
+    public static class MaxColumnHeight extends LinearEvaluator {
+        public MaxColumnHeight() {
+            super(Features.MAX_HEIGHT, -maxColumnHeightWeight, 0);
         }
     }
 
     // Number of rows cleared.
-    public static class NumRowsCleared implements MoveEvaluator {
-        @Override
-        public Float map(MoveResult moveResult) {
-            return moveResult.getRowsCleared() * numRowsClearedWeight;
+    public static class NumRowsCleared extends LinearEvaluator {
+        public NumRowsCleared() {
+            super(Features.ROWS_CLEARED, numRowsClearedWeight, 0);
         }
     }
 
     // Whether the move results in a loss or not.
-    public static class HasLost implements MoveEvaluator {
-        @Override
-        public Float map(MoveResult result) {
-            return result.hasLost() ? -10.0f : 10.0f;
+    public static class HasLost extends LinearEvaluator {
+        public HasLost() {
+            super(Features.LOST, -20, 10);
         }
     }
 
     // Number of holes, a hole is an empty block with a non-empty block above
     // it.
-    public static class NumFaults implements MoveEvaluator {
-        @Override
-        public Float map(MoveResult result) {
-            int[][] field = result.getState().getField();
-            int[] top = result.getState().getTop();
-            int numFaults = 0;
-
-            for (int x = 0; x < State.COLS; ++x) {
-                for (int y = top[x] - 1; y >= 0; --y) {
-                    if (field[y][x] == 0) {
-                        ++numFaults;
-                    }
-                }
-            }
-
-            return -(float) numFaults * numFaultsWeight;
+    public static class NumFaults extends LinearEvaluator {
+        public NumFaults() {
+            super(Features.HOLES, -numFaultsWeight, 0);
         }
     }
 
@@ -324,61 +326,16 @@ public class PlayerSkeletonReference {
     // two blocks and the pit depth
     // is defined as the difference between the height of the pit column and the
     // shortest adjacent column.
-    public static class PitDepths implements MoveEvaluator {
-        @Override
-        public Float map(MoveResult result) {
-            int[] top = result.getState().getTop();
-            int sumOfPitDepths = 0;
-
-            int pitHeight;
-            int leftOfPitHeight;
-            int rightOfPitHeight;
-
-            // pit depth of first column
-            pitHeight = top[0];
-            rightOfPitHeight = top[1];
-            int diff = rightOfPitHeight - pitHeight;
-            if (diff > 2) {
-                sumOfPitDepths += diff;
-            }
-
-            for (int col = 0; col < State.COLS - 2; col++) {
-                leftOfPitHeight = top[col];
-                pitHeight = top[col + 1];
-                rightOfPitHeight = top[col + 2];
-
-                int leftDiff = leftOfPitHeight - pitHeight;
-                int rightDiff = rightOfPitHeight - pitHeight;
-                int minDiff = leftDiff < rightDiff ? leftDiff : rightDiff;
-
-                if (minDiff > 2) {
-                    sumOfPitDepths += minDiff;
-                }
-            }
-
-            // pit depth of last column
-            pitHeight = top[State.COLS - 1];
-            leftOfPitHeight = top[State.COLS - 2];
-            diff = leftOfPitHeight - pitHeight;
-            if (diff > 2) {
-                sumOfPitDepths += diff;
-            }
-
-            return -(float) sumOfPitDepths * pitDepthsWeight;
-
+    public static class PitDepths extends LinearEvaluator {
+        public PitDepths() {
+            super(Features.PIT_DEPTHS, -pitDepthsWeight, 0);
         }
     }
 
     // Sum of height difference between all pairs of adjacent columns.
-    public static class Roughness implements MoveEvaluator {
-        @Override
-        public Float map(MoveResult result) {
-            int[] top = result.getState().getTop();
-            int roughness = 0;
-            for (int i = 0; i < top.length - 1; ++i) {
-                roughness += Math.abs(top[i] - top[i + 1]);
-            }
-            return -(float) roughness * roughnessWeight;
+    public static class Roughness extends LinearEvaluator {
+        public Roughness() {
+            super(Features.BUMPINESS, -roughnessWeight, 0);
         }
     }
 
@@ -408,9 +365,7 @@ public class PlayerSkeletonReference {
          * Construct a state which is identical to the built-in state
          */
         public ImmutableState(State state) {
-            field = copyField(state.getField());
-            int[] srcTop = state.getTop();
-            top = Arrays.copyOf(srcTop, srcTop.length);
+            board = new BitBoard(state.getBoard());
             turn = state.getTurnNumber();
         }
 
@@ -422,8 +377,18 @@ public class PlayerSkeletonReference {
          * @param turn
          */
         public ImmutableState(int[][] field, int[] top, int turn) {
-            this.field = field;
-            this.top = top;
+            this.board = new BitBoard(field, top);
+            this.turn = turn;
+        }
+
+        /**
+         * Construct a state which takes ownership of the given board
+         *
+         * @param board
+         * @param turn
+         */
+        public ImmutableState(BitBoard board, int turn) {
+            this.board = board;
             this.turn = turn;
         }
 
@@ -431,17 +396,20 @@ public class PlayerSkeletonReference {
          * Construct an empty state
          */
         public ImmutableState() {
-            field = new int[State.ROWS][State.COLS];
-            top = new int[State.COLS];
+            board = new BitBoard();
             turn = 0;
         }
 
         public int[][] getField() {
-            return field;
+            return board.getField();
         }
 
         public int[] getTop() {
-            return top;
+            return board.top;
+        }
+
+        public BitBoard getBoard() {
+            return board;
         }
 
         public int getTurn() {
@@ -457,131 +425,24 @@ public class PlayerSkeletonReference {
          * @return result of the move
          */
         public MoveResult move(int piece, int orient, int slot) {
-            int[][] field = copyField(this.field);
-            int[] top = Arrays.copyOf(this.top, this.top.length);
+            BitBoard board = new BitBoard(this.board);
             int turn = this.turn + 1;
 
-            // height if the first column makes contact
-            int height = top[slot] - pBottom[piece][orient][0];
-            // for each column beyond the first in the piece
-            for (int c = 1; c < pWidth[piece][orient]; c++) {
-                height = Math.max(height, top[slot + c] - pBottom[piece][orient][c]);
-            }
-
-            // check if game ended
-            if (height + pHeight[piece][orient] >= ROWS) {
-                return new MoveResult(field, top, turn, true, 0);
-            }
-
-            // for each column in the piece - fill in the appropriate blocks
-            for (int i = 0; i < pWidth[piece][orient]; i++) {
-                // from bottom to top of brick
-                for (int h = height + pBottom[piece][orient][i]; h < height + pTop[piece][orient][i]; h++) {
-                    field[h][i + slot] = turn;
-                }
-            }
-
-            // adjust top
-            for (int c = 0; c < pWidth[piece][orient]; c++) {
-                top[slot + c] = height + pTop[piece][orient][c];
+            int rowsCleared = board.place(PlacementTables.moveId(piece, orient, slot), null, 0);
+            if (rowsCleared == MoveKernel.LOST) {
+                return new MoveResult(board, turn, true, 0);
             }
 
-            int rowsCleared = 0;
-            // check for full rows - starting at the top
-            for (int r = height + pHeight[piece][orient] - 1; r >= height; r--) {
-                // check all columns in the row
-                boolean full = true;
-                for (int c = 0; c < COLS; c++) {
-                    if (field[r][c] == 0) {
-                        full = false;
-                        break;
-                    }
-                }
-                // if the row was full - remove it and slide above stuff down
-                if (full) {
-                    rowsCleared++;
-                    // for each column
-                    for (int c = 0; c < COLS; c++) {
-
-                        // slide down all bricks
-                        for (int i = r; i < top[c]; i++) {
-                            field[i][c] = field[i + 1][c];
-                        }
-                        // lower the top
-                        top[c]--;
-                        while (top[c] >= 1 && field[top[c] - 1][c] == 0)
-                            top[c]--;
-                    }
-                }
-            }
-
-            return new MoveResult(field, top, turn, false, rowsCleared);
+            return new MoveResult(board, turn, false, rowsCleared);
         }
 
-        private static int[][] copyField(int[][] srcField) {
-            int[][] copy = new int[ROWS][COLS];
-
-            for (int i = 0; i < ROWS; ++i) {
-                for (int j = 0; j < COLS; ++j) {
-                    copy[i][j] = srcField[i][j];
-                }
-            }
-
-            return copy;
-        }
-
-        private final int[][] field;
-        private final int[] top;
+        private final BitBoard board;
         private final int turn;
 
         // static
-        public static final int COLS = 10;
-        public static final int ROWS = 21;
-        public static final int N_PIECES = 7;
-        // all legal moves - first index is piece type - then a list of 2-length
-        // arrays
-        private static int[][][] legalMoves = new int[N_PIECES][][];
-        // indices for legalMoves
-        private static final int ORIENT = 0;
-        private static final int SLOT = 1;
-        // possible orientations for a given piece type
-        private static final int[] pOrients = {1, 2, 4, 4, 4, 2, 2};
-        // the next several arrays define the piece vocabulary in detail
-        // width of the pieces [piece ID][orientation]
-        private static final int[][] pWidth = { {2}, {1, 4}, {2, 3, 2, 3}, {2, 3, 2, 3}, {2, 3, 2, 3}, {3, 2}, {3, 2}};
-        // height of the pieces [piece ID][orientation]
-        private static int[][] pHeight = { {2}, {4, 1}, {3, 2, 3, 2}, {3, 2, 3, 2}, {3, 2, 3, 2}, {2, 3}, {2, 3}};
-        private static int[][][] pBottom = { {{0, 0}}, { {0}, {0, 0, 0, 0}}, { {0, 0}, {0, 1, 1}, {2, 0}, {0, 0, 0}},
-            { {0, 0}, {0, 0, 0}, {0, 2}, {1, 1, 0}}, { {0, 1}, {1, 0, 1}, {1, 0}, {0, 0, 0}}, { {0, 0, 1}, {1, 0}},
-            { {1, 0, 0}, {0, 1}}};
-        private static int[][][] pTop = { {{2, 2}}, { {4}, {1, 1, 1, 1}}, { {3, 1}, {2, 2, 2}, {3, 3}, {1, 1, 2}},
-            { {1, 3}, {2, 1, 1}, {3, 3}, {2, 2, 2}}, { {3, 2}, {2, 2, 2}, {2, 3}, {1, 2, 1}}, { {1, 2, 2}, {3, 2}},
-            { {2, 2, 1}, {2, 3}}};
-
-        // initialize legalMoves
-        static {
-            // for each piece type
-            for (int i = 0; i < N_PIECES; i++) {
-                // figure number of legal moves
-                int n = 0;
-                for (int j = 0; j < pOrients[i]; j++) {
-                    // number of locations in this orientation
-                    n += COLS + 1 - pWidth[i][j];
-                }
-                // allocate space
-                legalMoves[i] = new int[n][2];
-                // for each orientation
-                n = 0;
-                for (int j = 0; j < pOrients[i]; j++) {
-                    // for each slot
-                    for (int k = 0; k < COLS + 1 - pWidth[i][j]; k++) {
-                        legalMoves[i][n][ORIENT] = j;
-                        legalMoves[i][n][SLOT] = k;
-                        n++;
-                    }
-                }
-            }
-        }
+        public static final int COLS = State.COLS;
+        public static final int ROWS = State.ROWS;
+        public static final int N_PIECES = State.N_PIECES;
     }
 
     public static class MapReduce {
@@ -783,6 +644,12 @@ public class PlayerSkeletonReference {
             this.lost = lost;
         }
 
+        public MoveResult(BitBoard board, int turn, boolean lost, int rowsCleared) {
+            this.state = new ImmutableState(board, turn);
+            this.rowsCleared = rowsCleared;
+            this.lost = lost;
+        }
+
         public ImmutableState getState() {
             return state;
         }
@@ -795,8 +662,20 @@ public class PlayerSkeletonReference {
             return lost;
         }
 
+        // Every feature of the resulting board, extracted in one pass by
+        // Features the first time an evaluator asks for it.
+        public double[] getFeatures() {
+            if (features == null) {
+                double[] newFeatures = new double[Features.COUNT];
+                Features.extract(state.getBoard(), rowsCleared, lost, newFeatures);
+                features = newFeatures;
+            }
+            return features;
+        }
+
         private final int rowsCleared;
         private final boolean lost;
         private final ImmutableState state;
+        private double[] features;
     }
 }
\ No newline at end of file
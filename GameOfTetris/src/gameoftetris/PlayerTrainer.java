@@ -8,14 +8,17 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 
 import org.jgap.Chromosome;
 import org.jgap.Configuration;
-import org.jgap.FitnessFunction;
 import org.jgap.Gene;
 import org.jgap.Genotype;
 import org.jgap.IChromosome;
+import org.jgap.InvalidConfigurationException;
 import org.jgap.Population;
 import org.jgap.impl.DefaultConfiguration;
 import org.jgap.impl.DoubleGene;
@@ -37,6 +40,57 @@ public class PlayerTrainer {
     public static final int MAX_ALLOWED_EVOLUTIONS = 2;
     public static final int POPULATION_SIZE = 100;
 
+    // Set CORPUS_GAMES above 0 to score every chromosome on the same
+    // CORPUS_GAMES seeded games instead of one random game each, so that
+    // chromosomes are compared on equal luck. The games are read from
+    // CORPUS_FILE, which is generated on first use and then reused by every
+    // thread and every run. Delete it to change the games.
+    public static final int CORPUS_GAMES = 0;
+    public static final String CORPUS_FILE = "pieces.corpus";
+    public static final long CORPUS_SEED = 3243;
+    public static final int CORPUS_LENGTH = 1 << 20;
+
+    // With a corpus, the fitness of every chromosome played is also appended
+    // to FITNESS_CACHE_FILE, and a chromosome with the same weights is not
+    // played again, in this run or the next. At most FITNESS_CACHE_SIZE
+    // entries are kept in memory.
+    public static final boolean FITNESS_CACHE = true;
+    public static final String FITNESS_CACHE_FILE = "fitness.cache";
+    public static final int FITNESS_CACHE_SIZE = 1 << 16;
+
+    // The population is checkpointed to CHECKPOINT_FILE in binary after every
+    // cycle, in the background, and the next run resumes from it. Delete it
+    // to start from log.txt again.
+    public static final String CHECKPOINT_FILE = "population.ckpt";
+
+    // Set GRID_WORKERS above 0 to play the games of every generation in that
+    // many worker JVMs of GRID_WORKER_HEAP each, through a local JCGrid
+    // server (see GridFitnessFarm). Racing and halving are not distributed.
+    public static final int GRID_WORKERS = 0;
+    public static final String GRID_WORKER_HEAP = "256m";
+
+    // the farm started by startFarm, used by setFitness
+    private static GridFitnessFarm farm;
+
+    // Set RACE_MAX_GAMES above 0 to score each generation by racing (see
+    // RacingFitnessFunction): every chromosome plays RACE_MIN_GAMES games,
+    // then only those that may still be in the top RACE_TOP_FRACTION keep
+    // playing, up to RACE_MAX_GAMES. The games come from the corpus above
+    // when there is one.
+    public static final int RACE_MAX_GAMES = 0;
+    public static final int RACE_MIN_GAMES = 3;
+    public static final double RACE_TOP_FRACTION = 0.25;
+    public static final double RACE_Z = 2.0;
+
+    // Set HALVING_START_TURNS above 0 to score each generation with a
+    // successive-halving schedule (see SuccessiveHalvingFitnessFunction):
+    // every chromosome plays up to HALVING_START_TURNS turns, then the best
+    // 1/HALVING_ETA carry on to HALVING_ETA times as many turns, up to
+    // HALVING_MAX_TURNS. This bounds the time of a generation.
+    public static final int HALVING_START_TURNS = 0;
+    public static final int HALVING_MAX_TURNS = 1000000;
+    public static final int HALVING_ETA = 3;
+
     public static void main(String[] args) throws Exception {
 
         // Transfer all readings from log.txt to log_old.txt
@@ -44,8 +98,10 @@ public class PlayerTrainer {
         backupLog();
 
         Configuration conf = new DefaultConfiguration();
-        FitnessFunction fitnessFunction = new PlayerFitnessFunction();
-        conf.setFitnessFunction(fitnessFunction);
+        PieceCorpus corpus = openCorpus();
+        FitnessCache cache = openCache(corpus);
+        startFarm(corpus, cache);
+        setFitness(conf, corpus, cache);
 
         Gene[] genes = new Gene[7];
         genes[0] = new DoubleGene(conf, 0, 2);
@@ -70,33 +126,21 @@ public class PlayerTrainer {
         // MANUAL GENERATION OF CHROMOSOMES ---------------------------
         // Uncomment this section to manually generate chromosomes from log.txt
         // Population size will set to number of chromosomes read from log.txt
-         BufferedReader in = new BufferedReader(new FileReader("log.txt"));
-         Population p = new Population(conf);
-         String line = null;
-         int count = 0;
-         while ((line = in.readLine()) != null){
-         String[] arr = line.split(" "); genes = new Gene[7]; genes[0] = new
-         DoubleGene(conf,0, 2);
-         genes[0].setAllele(Double.parseDouble(arr[0]));
-         genes[1] = new DoubleGene(conf, 0, 2);
-         genes[1].setAllele(Double.parseDouble(arr[1]));
-         genes[2] = new DoubleGene(conf, 0, 2);
-         genes[2].setAllele(Double.parseDouble(arr[2]));
-         genes[3] = new DoubleGene(conf, 0, 2);
-         genes[3].setAllele(Double.parseDouble(arr[3]));
-         genes[4] = new DoubleGene(conf, 0, 2);
-         genes[4].setAllele(Double.parseDouble(arr[4]));
-         genes[5] = new DoubleGene(conf, 0, 2);
-         genes[5].setAllele(Double.parseDouble(arr[5]));
-         genes[6] = new DoubleGene(conf, 0, 2);
-         genes[6].setAllele(Double.parseDouble(arr[6]));
-         Chromosome c = new Chromosome(conf, genes);
-         p.addChromosome(c);
-         count++;
-         }
-         in.close();
-         conf.setPopulationSize(count);
-         Genotype population = new Genotype(conf, p);
+        // A checkpoint, when there is one, takes precedence, see
+        // CHECKPOINT_FILE.
+        Path checkpointFile = Paths.get(CHECKPOINT_FILE);
+        Population p;
+        int generation = 0;
+        if (Files.exists(checkpointFile)) {
+            Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+            checkpoint.restore(conf.getRandomGenerator());
+            p = checkpoint.toPopulation(conf);
+            generation = checkpoint.generation;
+        } else {
+            p = readLog(conf);
+        }
+        conf.setPopulationSize(p.size());
+        Genotype population = new Genotype(conf, p);
 
         // ------------------------------------------------------------
 
@@ -105,27 +149,115 @@ public class PlayerTrainer {
 //        IChromosome[] chromos = population.getPopulation().toChromosomes();
 //        updateLog(chromos);
         
-        for (int i = 0; i < MAX_ALLOWED_EVOLUTIONS; i++) {
-            System.out.println("EVOLUTION CYCLE NO. " + i);
-            population.evolve();
-            IChromosome[] chromosomes = population.getPopulation().toChromosomes();
-            IChromosome fittest = population.getFittestChromosome();
-            Gene[] gene_array = fittest.getGenes();
-            String s = "Fittest chromosome weights and value: ";
-            for (int g = 0; g < gene_array.length; g++){
-             s += gene_array[g].getAllele() + " ";
+        CheckpointWriter checkpoints = new CheckpointWriter(checkpointFile);
+        try {
+            for (int i = 0; i < MAX_ALLOWED_EVOLUTIONS; i++) {
+                System.out.println("EVOLUTION CYCLE NO. " + i);
+                SuccessiveHalvingFitnessFunction.scoreTogether(conf, population.getPopulation());
+                population.evolve();
+                checkpoints.submit(Checkpoint.of(population.getPopulation(), ++generation,
+                    conf.getRandomGenerator()));
+                IChromosome[] chromosomes = population.getPopulation().toChromosomes();
+                IChromosome fittest = population.getFittestChromosome();
+                Gene[] gene_array = fittest.getGenes();
+                String s = "Fittest chromosome weights and value: ";
+                for (int g = 0; g < gene_array.length; g++){
+                 s += gene_array[g].getAllele() + " ";
+                }
+                s += fittest.getFitnessValue() + " ";
+                System.out.println(s);
+                updateLog(chromosomes, i);
+                if (cache != null) {
+                    System.out.println("Fitness cache: " + cache);
+                }
+                if (farm != null) {
+                    System.out.print("Fitness farm: " + farm + "\n" + farm.workerReport());
+                }
+            }
+        } finally {
+            checkpoints.close();
+            if (farm != null) {
+                farm.close();
+            }
+            if (cache != null) {
+                cache.close();
             }
-            s += fittest.getFitnessValue() + " ";
-            System.out.println(s);
-            updateLog(chromosomes, i);
         }
-
         IChromosome bestSolutionSoFar = population.getFittestChromosome();
 
 //        Arrays.stream(bestSolutionSoFar.getGenes()).mapToDouble(gene -> (double) gene.getAllele())
 //            .forEach(System.out::println);
     }
 
+    // the chromosomes of log.txt, one per line of space separated alleles
+    public static Population readLog(Configuration conf) throws IOException, InvalidConfigurationException {
+        Population p = new Population(conf);
+        try (BufferedReader in = new BufferedReader(new FileReader("log.txt"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] arr = line.split(" ");
+                Gene[] genes = new Gene[7];
+                for (int i = 0; i < genes.length; i++) {
+                    genes[i] = new DoubleGene(conf, 0, 2);
+                    genes[i].setAllele(Double.parseDouble(arr[i]));
+                }
+                p.addChromosome(new Chromosome(conf, genes));
+            }
+        }
+        return p;
+    }
+
+    // the shared piece corpus, or null if CORPUS_GAMES is 0
+    public static PieceCorpus openCorpus() throws IOException {
+        if (CORPUS_GAMES == 0) {
+            return null;
+        }
+        return PieceCorpus.openOrCreate(Paths.get(CORPUS_FILE), CORPUS_SEED, CORPUS_GAMES, CORPUS_LENGTH);
+    }
+
+    // the fitness cache, or null if there is no corpus or FITNESS_CACHE is
+    // not set
+    public static FitnessCache openCache(PieceCorpus corpus) throws IOException {
+        if (corpus == null || !FITNESS_CACHE) {
+            return null;
+        }
+        return FitnessCache.open(Paths.get(FITNESS_CACHE_FILE), PlayerFitnessFunction.VERSION, Weights.SIZE,
+            FITNESS_CACHE_SIZE);
+    }
+
+    // Start the worker JVMs if GRID_WORKERS is set, and return the farm, or
+    // null. Every configuration given to setFitness afterwards shares it.
+    public static GridFitnessFarm startFarm(PieceCorpus corpus, FitnessCache cache) throws Exception {
+        if (GRID_WORKERS > 0 && farm == null) {
+            farm = new GridFitnessFarm(GRID_WORKERS, GRID_WORKER_HEAP, corpus != null ? Paths.get(CORPUS_FILE) : null,
+                corpus, cache);
+        }
+        return farm;
+    }
+
+    // whether setFitness sets a BulkFitnessFunction
+    public static boolean usesBulkFitness() {
+        return farm != null || RACE_MAX_GAMES > 0 || HALVING_START_TURNS > 0;
+    }
+
+    // the worker farm, racing or successive halving over the whole
+    // population, or one PlayerFitnessFunction call per chromosome, which may
+    // use the cache
+    public static void setFitness(Configuration conf, PieceCorpus corpus, FitnessCache cache)
+        throws InvalidConfigurationException {
+        if (farm != null) {
+            conf.setBulkFitnessFunction(farm);
+        } else if (RACE_MAX_GAMES > 0) {
+            conf.setBulkFitnessFunction(new RacingFitnessFunction(corpus, CORPUS_SEED, RACE_MIN_GAMES,
+                RACE_MAX_GAMES, RACE_TOP_FRACTION, RACE_Z));
+        } else if (HALVING_START_TURNS > 0) {
+            conf.setBulkFitnessFunction(new SuccessiveHalvingFitnessFunction(corpus, CORPUS_SEED,
+                HALVING_START_TURNS, HALVING_MAX_TURNS, HALVING_ETA));
+        } else {
+            conf.setFitnessFunction(new PlayerFitnessFunction(corpus, cache));
+        }
+    }
+
     public static void updateLog(IChromosome[] chromosomes, int index) throws IOException {
     //    backupLog();
     //    clearLog();
@@ -6,136 +6,215 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 import org.jgap.Chromosome;
 import org.jgap.Configuration;
-import org.jgap.FitnessFunction;
 import org.jgap.Gene;
 import org.jgap.Genotype;
 import org.jgap.IChromosome;
 import org.jgap.InvalidConfigurationException;
 import org.jgap.Population;
-import org.jgap.audit.EvolutionMonitor;
-import org.jgap.audit.IEvolutionMonitor;
-import org.jgap.event.GeneticEvent;
-import org.jgap.event.GeneticEventListener;
+import org.jgap.RandomGenerator;
 import org.jgap.impl.DefaultConfiguration;
 import org.jgap.impl.DoubleGene;
-import org.jgap.impl.FittestPopulationMerger;
-import org.jgap.impl.GABreeder;
 import org.jgap.impl.job.SimplePopulationSplitter;
 
 public class PlayerTrainerMT {
 
 	public static final int NUM_THREADS = 4;
+	// islands are spread over the threads, there can be more of them
+	public static final int NUM_ISLANDS = NUM_THREADS;
 	public static final int MAX_EVOLUTION_PERIOD = 40;
 	public static final int MAX_EVOLUTION_CYCLES = 5;
 	public static final int POPULATION_SIZE = 100;
+	// generations between migrations, and the fittest chromosomes each island
+	// sends to its neighbours in MIGRATION_TOPOLOGY
+	public static final int MIGRATION_INTERVAL = 10;
+	public static final int MIGRANTS = 2;
+	public static final IslandModel.Topology MIGRATION_TOPOLOGY = IslandModel.Topology.RING;
+	// Set STEADY_STATE to evolve one population with SteadyStateEvolution
+	// instead of islands: the threads breed and play children without
+	// waiting for each other, MAX_EVOLUTION_PERIOD * POPULATION_SIZE games
+	// per cycle.
+	public static final boolean STEADY_STATE = false;
+	// Set LPT_SCHEDULING to play the games of every island on one shared
+	// work-stealing pool, longest predicted game first (see
+	// LptFitnessScheduler). Ignored when racing or halving is configured.
+	public static final boolean LPT_SCHEDULING = false;
+
+	// games shared by every island, see PlayerTrainer.CORPUS_GAMES
+	private static PieceCorpus corpus;
+	// fitness of the chromosomes played before, see PlayerTrainer.FITNESS_CACHE
+	private static FitnessCache cache;
+	// fitness of every island when LPT_SCHEDULING is set
+	private static LptFitnessScheduler scheduler;
 
 	public static void main(String[] args) throws Exception {
 
+		if (STEADY_STATE && PlayerTrainer.GRID_WORKERS > 0) {
+			// the steady state threads play their games themselves
+			throw new IllegalStateException("STEADY_STATE does not use the fitness farm, set GRID_WORKERS to 0");
+		}
 		backupLog();
+		corpus = PlayerTrainer.openCorpus();
+		cache = PlayerTrainer.openCache(corpus);
+		GridFitnessFarm farm = PlayerTrainer.startFarm(corpus, cache);
 		
-		SimplePopulationSplitter pSplitter = new SimplePopulationSplitter(NUM_THREADS);
+		SimplePopulationSplitter pSplitter = new SimplePopulationSplitter(NUM_ISLANDS);
 		
 		Configuration rootConf = new DefaultConfiguration();
-		Gene[] sampleGenes = new Gene[7];
-		sampleGenes[0] = new DoubleGene(rootConf, 0, 2);
-		sampleGenes[1] = new DoubleGene(rootConf, 0, 2);
-		sampleGenes[2] = new DoubleGene(rootConf, 0, 2);
-		sampleGenes[3] = new DoubleGene(rootConf, 0, 2);
-		sampleGenes[4] = new DoubleGene(rootConf, 0, 2);
-		sampleGenes[5] = new DoubleGene(rootConf, 0, 2);
-		sampleGenes[6] = new DoubleGene(rootConf, 0, 2);
-		Chromosome sampleChromosome = new Chromosome(rootConf, sampleGenes);
-		rootConf.setSampleChromosome(sampleChromosome);
-		rootConf.setPopulationSize(POPULATION_SIZE * NUM_THREADS);
-		rootConf.setFitnessFunction(new PlayerFitnessFunction());
+		rootConf.setSampleChromosome(sampleChromosome(rootConf));
+		rootConf.setPopulationSize(POPULATION_SIZE * NUM_ISLANDS);
+		PlayerTrainer.setFitness(rootConf, corpus, cache);
 		//rootConf.setFitnessFunction(new TestFitnessFunction());
-		Genotype gt = Genotype.randomInitialGenotype(rootConf);
-		Population[] populations = pSplitter.split(gt.getPopulation());
-		
-		for (int i = 0; i < MAX_EVOLUTION_CYCLES; i++){
-			populations = megaEvolve(populations);
-			Population p = megaMerge(populations);
-			for (int j = 0; j < NUM_THREADS; j++){
-				populations[j] = p;
+		// resume from the last merged population, see PlayerTrainer.CHECKPOINT_FILE
+		Path checkpointFile = Paths.get(PlayerTrainer.CHECKPOINT_FILE);
+		Checkpoint checkpoint = null;
+		Population initial;
+		int generation = 0;
+		if (Files.exists(checkpointFile)) {
+			checkpoint = Checkpoint.read(checkpointFile);
+			initial = checkpoint.toPopulation(rootConf);
+			generation = checkpoint.generation;
+		} else {
+			initial = Genotype.randomInitialGenotype(rootConf).getPopulation();
+		}
+		if (STEADY_STATE) {
+			if (checkpoint != null) {
+				checkpoint.restore(rootConf.getRandomGenerator());
+			}
+			try {
+				steadyState(rootConf, initial, generation, checkpointFile);
+			} finally {
+				if (cache != null) {
+					cache.close();
+				}
+			}
+			return;
+		}
+
+		ForkJoinPool games = null;
+		if (LPT_SCHEDULING) {
+			games = new ForkJoinPool(NUM_THREADS);
+			scheduler = new LptFitnessScheduler(games, corpus, cache);
+		}
+		Configuration[] confs = new Configuration[NUM_ISLANDS];
+		for (int i = 0; i < NUM_ISLANDS; i++) {
+			confs[i] = islandConfiguration(i);
+		}
+		RandomGenerator[] randoms = randomGenerators(rootConf, confs);
+		if (checkpoint != null) {
+			checkpoint.restore(randoms);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+		CheckpointWriter checkpoints = new CheckpointWriter(checkpointFile);
+		try {
+			IslandModel islands = new IslandModel(confs, pSplitter.split(initial), executor, MIGRATION_INTERVAL,
+					MIGRANTS, MIGRATION_TOPOLOGY);
+			if (checkpoint != null) {
+				// the checkpoint holds the merged elites the islands were
+				// reseeded with
+				islands.resume(initial, generation);
+			}
+			for (int i = 0; i < MAX_EVOLUTION_CYCLES; i++){
+				islands.evolve(MAX_EVOLUTION_PERIOD);
+				System.out.println("Islands have completed " + MAX_EVOLUTION_PERIOD + " evolution periods.");
+				Population p = islands.mergeElites(rootConf, POPULATION_SIZE);
+				islands.reseed(p);
+				generation += MAX_EVOLUTION_PERIOD;
+				checkpoints.submit(Checkpoint.of(p, generation, randoms));
+				updateLog(p.toChromosomes());
+				if (cache != null) {
+					System.out.println("Fitness cache: " + cache);
+				}
+				if (farm != null) {
+					System.out.print("Fitness farm: " + farm + "\n" + farm.workerReport());
+				}
+			}
+		} finally {
+			executor.shutdown();
+			if (games != null) {
+				games.shutdown();
+			}
+			checkpoints.close();
+			if (farm != null) {
+				farm.close();
 			}
-			updateLog(p.toChromosomes());
-		}	
+			if (cache != null) {
+				cache.close();
+			}
+		}
 	}
-	
-	public static Population megaMerge(Population[] populations){
-		FittestPopulationMerger pMerger = new FittestPopulationMerger();
-		Population p = populations[0];
-		for (int i = 1; i < NUM_THREADS; i++){
-			p = pMerger.mergePopulations(p, populations[i], POPULATION_SIZE);
+
+	// Evolve initial in steady state, checkpointing the population after each
+	// cycle as the islands do. After each checkpoint the evolution restarts
+	// from it, seeded from the root generator, so a run resumed from it,
+	// whose root generator the checkpoint restores, breeds as this one goes
+	// on to.
+	private static void steadyState(Configuration rootConf, Population initial, int generation, Path checkpointFile)
+			throws Exception {
+		RandomGenerator root = rootConf.getRandomGenerator();
+		SteadyStateEvolution evolution = new SteadyStateEvolution(initial,
+				weights -> PlayerFitnessFunction.evaluate(weights, corpus, cache), 0, 2, root.nextLong());
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+		CheckpointWriter checkpoints = new CheckpointWriter(checkpointFile);
+		try {
+			for (int i = 0; i < MAX_EVOLUTION_CYCLES; i++) {
+				evolution.run(executor, NUM_THREADS, (long) MAX_EVOLUTION_PERIOD * POPULATION_SIZE);
+				System.out.println("Steady state: " + evolution);
+				Population p = evolution.toPopulation(rootConf);
+				generation += MAX_EVOLUTION_PERIOD;
+				checkpoints.submit(Checkpoint.of(p, generation, root));
+				evolution.restart(root.nextLong());
+				updateLog(p.toChromosomes());
+			}
+		} finally {
+			executor.shutdown();
+			checkpoints.close();
 		}
-		return p;
 	}
-	
-	public static Population[] megaEvolve(Population[] populations) throws InvalidConfigurationException{
-		
-		CountingSemaphore cs = new CountingSemaphore();
-		Mutex mutex = new Mutex();
-		Population[] newPopulations = new Population[NUM_THREADS];
-		
-		for (int i = 0; i < NUM_THREADS; i++){
-		    // Construct configuration with unique ID, this is important.
-			Configuration.reset(i + "");
-		    Configuration conf = new DefaultConfiguration(i + "", "Conf for thread");
-		    Gene[] genes = new Gene[7];
-			genes[0] = new DoubleGene(conf, 0, 2);
-			genes[1] = new DoubleGene(conf, 0, 2);
-			genes[2] = new DoubleGene(conf, 0, 2);
-			genes[3] = new DoubleGene(conf, 0, 2);
-			genes[4] = new DoubleGene(conf, 0, 2);
-			genes[5] = new DoubleGene(conf, 0, 2);
-			genes[6] = new DoubleGene(conf, 0, 2);
-			Chromosome chromosome = new Chromosome(conf, genes);
-			conf.setSampleChromosome(chromosome);
-			conf.setPopulationSize(POPULATION_SIZE);
-			FitnessFunction fitnessFunction = new PlayerFitnessFunction();
-			conf.setFitnessFunction(fitnessFunction);
 
-			Genotype genotype = new Genotype(conf, populations[i]);
-			
-		    final IEvolutionMonitor monitor = new EvolutionMonitor();
-	        genotype.setUseMonitor(true);
-	        conf.setMonitor(monitor);
-	        genotype.setMonitor(monitor);
-		    
-		    final Thread t1 = new Thread(genotype);
-		  
-		    GeneticEventListener listener = new GeneticEventListener(){
-		    	public void geneticEventFired(GeneticEvent a_firedEvent) {
-		    		GABreeder breeder = (GABreeder) a_firedEvent.getSource();
-			        int evno = breeder.getLastConfiguration().getGenerationNr();
-			        if (evno > MAX_EVOLUTION_PERIOD) {
-			            t1.interrupt();
-			            monitor.getPopulations();
-			            Population p = breeder.getLastPopulation();
-			            System.out.println(t1.getName() + " has completed " + evno + " evolution periods.");
-			            try {
-							mutex.release();
-							newPopulations[Integer.parseInt(conf.getId())] = p;
-							mutex.take();
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						}
-			            cs.take();
-			        } 
-			    }
-		    };
-		    
-		    conf.getEventManager().addEventListener(GeneticEvent.GENOTYPE_EVOLVED_EVENT, listener);
-		    
-		    t1.start();
+	// the generators evolution draws from, root first, as a checkpoint saves them
+	private static RandomGenerator[] randomGenerators(Configuration rootConf, Configuration[] confs) {
+		RandomGenerator[] randoms = new RandomGenerator[confs.length + 1];
+		randoms[0] = rootConf.getRandomGenerator();
+		for (int i = 0; i < confs.length; i++) {
+			randoms[i + 1] = confs[i].getRandomGenerator();
 		}
-		
-		while (cs.getCount() < NUM_THREADS);
-		
-		return newPopulations;
+		return randoms;
+	}
+
+	// Configuration of one island. Each has its own id, which is important.
+	private static Configuration islandConfiguration(int island) throws InvalidConfigurationException {
+		Configuration.reset(island + "");
+		Configuration conf = new DefaultConfiguration(island + "", "Conf for island");
+		conf.setSampleChromosome(sampleChromosome(conf));
+		conf.setPopulationSize(POPULATION_SIZE);
+		if (scheduler != null && !PlayerTrainer.usesBulkFitness()) {
+			conf.setBulkFitnessFunction(scheduler);
+		} else {
+			PlayerTrainer.setFitness(conf, corpus, cache);
+		}
+		return conf;
+	}
+
+	private static Chromosome sampleChromosome(Configuration conf) throws InvalidConfigurationException {
+		Gene[] genes = new Gene[7];
+		genes[0] = new DoubleGene(conf, 0, 2);
+		genes[1] = new DoubleGene(conf, 0, 2);
+		genes[2] = new DoubleGene(conf, 0, 2);
+		genes[3] = new DoubleGene(conf, 0, 2);
+		genes[4] = new DoubleGene(conf, 0, 2);
+		genes[5] = new DoubleGene(conf, 0, 2);
+		genes[6] = new DoubleGene(conf, 0, 2);
+		return new Chromosome(conf, genes);
 	}
 	
 	public static void updateLog(IChromosome[] chromosomes) throws IOException{
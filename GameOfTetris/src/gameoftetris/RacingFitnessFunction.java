@@ -0,0 +1,132 @@
+import java.util.Arrays;
+
+import org.jgap.BulkFitnessFunction;
+import org.jgap.IChromosome;
+import org.jgap.Population;
+
+/**
+ * Scores a whole population by racing: every chromosome still in the race
+ * plays one more game per round, and a chromosome stops playing once it is
+ * confidently out of the top fraction of the population. Strong candidates
+ * keep playing up to maxGames, weak ones are settled after minGames.
+ *
+ * Round g is the same game for every chromosome (game g of the corpus, or a
+ * generator seeded from the seed and g past its end), so chromosomes are
+ * compared on equal luck. A chromosome is out when the upper end of its
+ * confidence interval, mean + z * standard error, is below the lower end of
+ * the interval of the chromosome ranked at the cut-off. Its fitness is the
+ * mean rows cleared of the games it played.
+ *
+ * The corpus is a mapped file and is not serialized: a deserialized copy
+ * plays seeded games only.
+ */
+public class RacingFitnessFunction extends BulkFitnessFunction {
+    private static final long serialVersionUID = 1L;
+
+    private final transient PieceCorpus corpus;
+    private final long seed;
+    private final int minGames;
+    private final int maxGames;
+    private final double topFraction;
+    private final double z;
+
+    private long gamesPlayed;
+    private long gamesSkipped;
+
+    // corpus may be null to play seeded games only
+    public RacingFitnessFunction(PieceCorpus corpus, long seed, int minGames, int maxGames, double topFraction,
+        double z) {
+        this.corpus = corpus;
+        this.seed = seed;
+        this.minGames = minGames;
+        this.maxGames = maxGames;
+        this.topFraction = topFraction;
+        this.z = z;
+    }
+
+    @Override
+    public void evaluate(Population population) {
+        IChromosome[] chromosomes = population.toChromosomes();
+        int n = chromosomes.length;
+        PlayerSkeletonOneLayer[] players = new PlayerSkeletonOneLayer[n];
+        for (int i = 0; i < n; i++) {
+            players[i] = new PlayerSkeletonOneLayer(Weights.allelesOf(chromosomes[i]));
+        }
+
+        // running mean and sum of squared deviations of each chromosome
+        int[] games = new int[n];
+        double[] mean = new double[n];
+        double[] m2 = new double[n];
+        boolean[] racing = new boolean[n];
+        Arrays.fill(racing, true);
+        int cutOff = Math.max(1, (int) Math.ceil(topFraction * n));
+        double[] lower = new double[n];
+
+        int left = n;
+        for (int round = 0; round < maxGames && left > cutOff; round++) {
+            for (int i = 0; i < n; i++) {
+                if (!racing[i]) {
+                    continue;
+                }
+                int rows = players[i].run(source(round));
+                games[i]++;
+                double delta = rows - mean[i];
+                mean[i] += delta / games[i];
+                m2[i] += delta * (rows - mean[i]);
+                gamesPlayed++;
+            }
+            if (round + 1 < minGames) {
+                continue;
+            }
+
+            // lower bound of the chromosome ranked at the cut-off
+            for (int i = 0; i < n; i++) {
+                lower[i] = mean[i] - z * standardError(games[i], m2[i]);
+            }
+            double[] ranked = lower.clone();
+            Arrays.sort(ranked);
+            double bar = ranked[n - cutOff];
+
+            for (int i = 0; i < n; i++) {
+                if (racing[i] && mean[i] + z * standardError(games[i], m2[i]) < bar) {
+                    racing[i] = false;
+                    gamesSkipped += maxGames - games[i];
+                    left--;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (racing[i]) {
+                gamesSkipped += maxGames - games[i];
+            }
+            chromosomes[i].setFitnessValue(mean[i]);
+        }
+    }
+
+    private static double standardError(int games, double m2) {
+        return games < 2 ? Double.POSITIVE_INFINITY : Math.sqrt(m2 / (games - 1) / games);
+    }
+
+    private PieceSource source(int game) {
+        if (corpus != null && game < corpus.size()) {
+            return corpus.source(game);
+        }
+        return PieceSource.seeded(seed * 31 + game);
+    }
+
+    // games played so far
+    public long getGamesPlayed() {
+        return gamesPlayed;
+    }
+
+    // games that scoring everyone on maxGames would have played on top
+    public long getGamesSkipped() {
+        return gamesSkipped;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d games played, %d skipped (%.1f%%)", gamesPlayed, gamesSkipped,
+            100.0 * gamesSkipped / Math.max(1, gamesPlayed + gamesSkipped));
+    }
+}
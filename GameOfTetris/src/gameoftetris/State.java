@@ -13,71 +13,44 @@ public class State {
     private int turn = 0;
     private int cleared = 0;
 
-    // each square in the grid - int means empty - other values mean the turn it
-    // was placed
-    private int[][] field = new int[ROWS][COLS];
-    // top row+1 of each column
-    // 0 means empty
-    private int[] top = new int[COLS];
+    // each row of the grid as a bit mask of its filled squares, together with
+    // the top row+1 of each column (0 means empty)
+    private final BitBoard board = new BitBoard();
 
     // number of next piece
     protected int nextPiece;
+    // where the pieces come from
+    private final PieceSource pieces;
 
     // all legal moves - first index is piece type - then a list of 2-length
     // arrays
-    protected static int[][][] legalMoves = new int[N_PIECES][][];
+    protected static int[][][] legalMoves = PlacementTables.LEGAL_MOVES;
 
     // indices for legalMoves
-    public static final int ORIENT = 0;
-    public static final int SLOT = 1;
+    public static final int ORIENT = PlacementTables.ORIENT;
+    public static final int SLOT = PlacementTables.SLOT;
 
+    // the piece vocabulary, see PlacementTables
     // possible orientations for a given piece type
-    protected static int[] pOrients = {1, 2, 4, 4, 4, 2, 2};
-
-    // the next several arrays define the piece vocabulary in detail
+    protected static int[] pOrients = PlacementTables.P_ORIENTS;
     // width of the pieces [piece ID][orientation]
-    protected static int[][] pWidth = { {2}, {1, 4}, {2, 3, 2, 3}, {2, 3, 2, 3}, {2, 3, 2, 3}, {3, 2}, {3, 2}};
+    protected static int[][] pWidth = PlacementTables.P_WIDTH;
     // height of the pieces [piece ID][orientation]
-    private static int[][] pHeight = { {2}, {4, 1}, {3, 2, 3, 2}, {3, 2, 3, 2}, {3, 2, 3, 2}, {2, 3}, {2, 3}};
-    private static int[][][] pBottom = { {{0, 0}}, { {0}, {0, 0, 0, 0}}, { {0, 0}, {0, 1, 1}, {2, 0}, {0, 0, 0}},
-        { {0, 0}, {0, 0, 0}, {0, 2}, {1, 1, 0}}, { {0, 1}, {1, 0, 1}, {1, 0}, {0, 0, 0}}, { {0, 0, 1}, {1, 0}},
-        { {1, 0, 0}, {0, 1}}};
-    private static int[][][] pTop = { {{2, 2}}, { {4}, {1, 1, 1, 1}}, { {3, 1}, {2, 2, 2}, {3, 3}, {1, 1, 2}},
-        { {1, 3}, {2, 1, 1}, {3, 3}, {2, 2, 2}}, { {3, 2}, {2, 2, 2}, {2, 3}, {1, 2, 1}}, { {1, 2, 2}, {3, 2}},
-        { {2, 2, 1}, {2, 3}}};
-
-    // initialize legalMoves
-    {
-        // for each piece type
-        for (int i = 0; i < N_PIECES; i++) {
-            // figure number of legal moves
-            int n = 0;
-            for (int j = 0; j < pOrients[i]; j++) {
-                // number of locations in this orientation
-                n += COLS + 1 - pWidth[i][j];
-            }
-            // allocate space
-            legalMoves[i] = new int[n][2];
-            // for each orientation
-            n = 0;
-            for (int j = 0; j < pOrients[i]; j++) {
-                // for each slot
-                for (int k = 0; k < COLS + 1 - pWidth[i][j]; k++) {
-                    legalMoves[i][n][ORIENT] = j;
-                    legalMoves[i][n][SLOT] = k;
-                    n++;
-                }
-            }
-        }
-
-    }
+    private static int[][] pHeight = PlacementTables.P_HEIGHT;
+    private static int[][][] pBottom = PlacementTables.P_BOTTOM;
+    private static int[][][] pTop = PlacementTables.P_TOP;
 
+    // each square in the grid - 0 means empty - other values mean filled
     public int[][] getField() {
-        return field;
+        return board.getField();
     }
 
     public int[] getTop() {
-        return top;
+        return board.top;
+    }
+
+    public BitBoard getBoard() {
+        return board;
     }
 
     public static int[] getpOrients() {
@@ -118,13 +91,19 @@ public class State {
 
     // constructor
     public State() {
+        this(PieceSource.random());
+    }
+
+    // constructor playing the pieces of the given source
+    public State(PieceSource pieces) {
+        this.pieces = pieces;
         nextPiece = randomPiece();
 
     }
 
-    // random integer, returns 0-6
+    // next piece from the source, returns 0-6
     private int randomPiece() {
-        return (int) (Math.random() * N_PIECES);
+        return pieces.nextPiece();
     }
 
     // gives legal moves for
@@ -144,64 +123,21 @@ public class State {
 
     // returns false if you lose - true otherwise
     public boolean makeMove(int orient, int slot) {
-        turn++;
-        // height if the first column makes contact
-        int height = top[slot] - pBottom[nextPiece][orient][0];
-        // for each column beyond the first in the piece
-        for (int c = 1; c < pWidth[nextPiece][orient]; c++) {
-            height = Math.max(height, top[slot + c] - pBottom[nextPiece][orient][c]);
+        // moveId does not check its arguments, an invalid placement would
+        // silently play another one
+        if (orient < 0 || orient >= pOrients[nextPiece] || slot < 0 || slot > COLS - pWidth[nextPiece][orient]) {
+            throw new IllegalArgumentException("no placement of piece " + nextPiece + " with orientation " + orient
+                + " in slot " + slot);
         }
+        turn++;
+        int rowsCleared = board.place(PlacementTables.moveId(nextPiece, orient, slot), null, 0);
 
         // check if game ended
-        if (height + pHeight[nextPiece][orient] >= ROWS) {
+        if (rowsCleared == MoveKernel.LOST) {
             lost = true;
             return false;
         }
-
-        // for each column in the piece - fill in the appropriate blocks
-        for (int i = 0; i < pWidth[nextPiece][orient]; i++) {
-
-            // from bottom to top of brick
-            for (int h = height + pBottom[nextPiece][orient][i]; h < height + pTop[nextPiece][orient][i]; h++) {
-                field[h][i + slot] = turn;
-            }
-        }
-
-        // adjust top
-        for (int c = 0; c < pWidth[nextPiece][orient]; c++) {
-            top[slot + c] = height + pTop[nextPiece][orient][c];
-        }
-
-        int rowsCleared = 0;
-
-        // check for full rows - starting at the top
-        for (int r = height + pHeight[nextPiece][orient] - 1; r >= height; r--) {
-            // check all columns in the row
-            boolean full = true;
-            for (int c = 0; c < COLS; c++) {
-                if (field[r][c] == 0) {
-                    full = false;
-                    break;
-                }
-            }
-            // if the row was full - remove it and slide above stuff down
-            if (full) {
-                rowsCleared++;
-                cleared++;
-                // for each column
-                for (int c = 0; c < COLS; c++) {
-
-                    // slide down all bricks
-                    for (int i = r; i < top[c]; i++) {
-                        field[i][c] = field[i + 1][c];
-                    }
-                    // lower the top
-                    top[c]--;
-                    while (top[c] >= 1 && field[top[c] - 1][c] == 0)
-                        top[c]--;
-                }
-            }
-        }
+        cleared += rowsCleared;
 
         // pick a new piece
         nextPiece = randomPiece();
@@ -219,7 +155,8 @@ public class State {
         label.line(0, ROWS - 1, COLS, ROWS - 1);
 
         // show bricks
-
+        int[][] field = board.getField();
+        int[] top = board.top;
         for (int c = 0; c < COLS; c++) {
             for (int r = 0; r < top[c]; r++) {
                 if (field[r][c] != 0) {
@@ -0,0 +1,262 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ToDoubleFunction;
+
+import org.jgap.Chromosome;
+import org.jgap.Configuration;
+import org.jgap.Gene;
+import org.jgap.IChromosome;
+import org.jgap.InvalidConfigurationException;
+import org.jgap.Population;
+import org.jgap.impl.DoubleGene;
+
+/**
+ * Steady-state GA without generation barriers. Every worker loops on its own:
+ * it picks two parents by tournament, breeds one child, plays it, and the
+ * child at once takes the slot of the weakest of a few random individuals if
+ * it beats it. A long game only holds up the worker playing it, the others
+ * keep breeding, so every core stays busy however much game lengths vary.
+ *
+ * The population is an AtomicReferenceArray of immutable individuals. Readers
+ * never lock, and a child replaces an individual with compareAndSet, so two
+ * workers racing for the same slot cannot both win; the loser looks for
+ * another slot. Individuals without a fitness yet, such as those of the
+ * initial population, are scored by the workers first.
+ */
+public class SteadyStateEvolution {
+    public static final int TOURNAMENT_SIZE = 3;
+    // chance of each gene of a child being mutated, and the standard
+    // deviation of a mutation as a fraction of the range of the genes
+    public static final double MUTATION_RATE = 0.2;
+    public static final double MUTATION_SIGMA = 0.1;
+    // attempts to find a slot for a child before it is dropped
+    private static final int MAX_REPLACE_ATTEMPTS = 4;
+
+    // a weight vector and its fitness, NaN until played
+    public static final class Individual {
+        private final double[] weights;
+        private final double fitness;
+
+        Individual(double[] weights, double fitness) {
+            this.weights = weights;
+            this.fitness = fitness;
+        }
+
+        public double[] getWeights() {
+            return weights.clone();
+        }
+
+        public double getFitness() {
+            return fitness;
+        }
+
+        boolean isScored() {
+            return !Double.isNaN(fitness);
+        }
+    }
+
+    private final AtomicReferenceArray<Individual> population;
+    private final ToDoubleFunction<double[]> fitness;
+    private final double lower;
+    private final double upper;
+    private SplittableRandom random;
+
+    // next slot to check for an unscored individual
+    private final AtomicInteger nextUnscored = new AtomicInteger();
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicLong replacements = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    // Start from the chromosomes of initial, keeping the fitness of those
+    // that have one. Genes are kept within [lower, upper].
+    public SteadyStateEvolution(Population initial, ToDoubleFunction<double[]> fitness, double lower, double upper,
+        long seed) {
+        this.population = new AtomicReferenceArray<Individual>(initial.size());
+        this.fitness = fitness;
+        this.lower = lower;
+        this.upper = upper;
+        this.random = new SplittableRandom(seed);
+        for (int i = 0; i < initial.size(); i++) {
+            IChromosome c = initial.getChromosome(i);
+            double score = c.getFitnessValueDirectly();
+            population.set(i, new Individual(Weights.allelesOf(c), score < 0 ? Double.NaN : score));
+        }
+    }
+
+    // Play the given number of games (children plus unscored individuals)
+    // on the given number of workers of the executor, and return when they
+    // are all done.
+    public void run(ExecutorService executor, int workers, long games) throws InterruptedException,
+        ExecutionException {
+        final AtomicLong left = new AtomicLong(games);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int w = 0; w < workers; w++) {
+            // seeded here, each worker has its own generator
+            final Random workerRandom = new Random(random.nextLong());
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    while (left.getAndDecrement() > 0) {
+                        step(workerRandom);
+                    }
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> result : executor.invokeAll(tasks)) {
+            // rethrows what a worker threw
+            result.get();
+        }
+    }
+
+    // Go on as a new evolution would from toPopulation and seed: the slots
+    // in snapshot order and the workers' generators of later runs drawn from
+    // seed. Not to be called during a run.
+    public void restart(long seed) {
+        Individual[] individuals = snapshot();
+        for (int i = 0; i < individuals.length; i++) {
+            population.set(i, individuals[i]);
+        }
+        nextUnscored.set(0);
+        random = new SplittableRandom(seed);
+    }
+
+    private void step(Random random) {
+        // the initial population is scored before anything is bred
+        int slot;
+        while ((slot = nextUnscored.getAndIncrement()) < population.length()) {
+            Individual unscored = population.get(slot);
+            if (!unscored.isScored()) {
+                Individual scored = new Individual(unscored.weights, play(unscored.weights));
+                // lost if a child has taken the slot in the meantime
+                population.compareAndSet(slot, unscored, scored);
+                return;
+            }
+        }
+
+        double[] mother = select(random).weights;
+        double[] father = select(random).weights;
+        double[] weights = new double[mother.length];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = random.nextBoolean() ? mother[i] : father[i];
+            if (random.nextDouble() < MUTATION_RATE) {
+                weights[i] += random.nextGaussian() * MUTATION_SIGMA * (upper - lower);
+                weights[i] = Math.max(lower, Math.min(upper, weights[i]));
+            }
+        }
+        Individual child = new Individual(weights, play(weights));
+
+        for (int attempt = 0; attempt < MAX_REPLACE_ATTEMPTS; attempt++) {
+            int weakest = weakest(random);
+            if (weakest < 0) {
+                continue;
+            }
+            Individual victim = population.get(weakest);
+            if (victim.fitness >= child.fitness) {
+                rejected.incrementAndGet();
+                return;
+            }
+            if (population.compareAndSet(weakest, victim, child)) {
+                replacements.incrementAndGet();
+                return;
+            }
+        }
+        rejected.incrementAndGet();
+    }
+
+    private double play(double[] weights) {
+        double score = fitness.applyAsDouble(weights);
+        evaluations.incrementAndGet();
+        return score;
+    }
+
+    // the fittest of TOURNAMENT_SIZE random individuals, unscored ones lose
+    private Individual select(Random random) {
+        Individual best = population.get(random.nextInt(population.length()));
+        for (int i = 1; i < TOURNAMENT_SIZE; i++) {
+            Individual other = population.get(random.nextInt(population.length()));
+            if (!best.isScored() || other.fitness > best.fitness) {
+                best = other;
+            }
+        }
+        return best;
+    }
+
+    // the slot of the weakest of TOURNAMENT_SIZE random individuals, or -1 if
+    // they are all still to be scored
+    private int weakest(Random random) {
+        int weakest = -1;
+        for (int i = 0; i < TOURNAMENT_SIZE; i++) {
+            int slot = random.nextInt(population.length());
+            Individual candidate = population.get(slot);
+            if (candidate.isScored() && (weakest < 0 || candidate.fitness < population.get(weakest).fitness)) {
+                weakest = slot;
+            }
+        }
+        return weakest;
+    }
+
+    // a snapshot of the population, fittest first, unscored individuals last
+    public Individual[] snapshot() {
+        Individual[] individuals = new Individual[population.length()];
+        for (int i = 0; i < individuals.length; i++) {
+            individuals[i] = population.get(i);
+        }
+        Arrays.sort(individuals, (a, b) -> Double.compare(score(b), score(a)));
+        return individuals;
+    }
+
+    private static double score(Individual individual) {
+        return individual.isScored() ? individual.fitness : Double.NEGATIVE_INFINITY;
+    }
+
+    // the snapshot as chromosomes of DoubleGenes bound to conf, with their
+    // fitness set so they are not played again
+    public Population toPopulation(Configuration conf) throws InvalidConfigurationException {
+        Population p = new Population(conf, population.length());
+        for (Individual individual : snapshot()) {
+            Gene[] genes = new Gene[individual.weights.length];
+            for (int i = 0; i < genes.length; i++) {
+                genes[i] = new DoubleGene(conf, lower, upper);
+                genes[i].setAllele(individual.weights[i]);
+            }
+            Chromosome c = new Chromosome(conf, genes);
+            if (individual.isScored()) {
+                c.setFitnessValueDirectly(individual.fitness);
+            }
+            p.addChromosome(c);
+        }
+        return p;
+    }
+
+    // games played so far
+    public long getEvaluations() {
+        return evaluations.get();
+    }
+
+    // children that took a slot
+    public long getReplacements() {
+        return replacements.get();
+    }
+
+    // children that were not fit enough, or found no slot
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return evaluations.get() + " games played, " + replacements.get() + " children kept, " + rejected.get()
+            + " rejected";
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jgap.BulkFitnessFunction;
+import org.jgap.Configuration;
+import org.jgap.IChromosome;
+import org.jgap.Population;
+
+/**
+ * Scores a whole population with a successive-halving schedule of turn caps,
+ * so a generation takes bounded time however long the best games could run.
+ *
+ * Every chromosome of a generation plays the same game up to startTurns
+ * turns. The best 1/eta of them, by rows cleared, carry on with their game up
+ * to eta times as many turns, and so on until maxTurns. Games are continued
+ * rather than replayed, and a game that is lost stops where it is. Each
+ * generation, by the generation number of its Configuration, plays the next
+ * game of the corpus, or the next seed, so the weights are not tuned to one
+ * piece sequence.
+ *
+ * Scores are only comparable within one batch of games, so the whole
+ * population is scored together every generation. JGAP only passes the
+ * chromosomes that have no fitness yet, so scoreTogether must be called on
+ * the population before each generation: it scores the population again as
+ * one batch unless it already is one. Every call within the generation then
+ * scores its chromosomes again together with the population and those of
+ * the earlier calls.
+ *
+ * Fitness is the rows cleared within the last cap a chromosome reached, plus
+ * SURVIVAL_BONUS if it was still alive at that cap. Rows are whole numbers,
+ * so the flag only orders chromosomes that cleared as many rows.
+ *
+ * The corpus is a mapped file and is not serialized: a deserialized copy
+ * plays seeded games only, and forgets what the original scored in the
+ * current generation.
+ */
+public class SuccessiveHalvingFitnessFunction extends BulkFitnessFunction {
+    private static final long serialVersionUID = 1L;
+    public static final double SURVIVAL_BONUS = 0.5;
+
+    private final transient PieceCorpus corpus;
+    private final long seed;
+    private final int startTurns;
+    private final int maxTurns;
+    private final int eta;
+
+    // the generation being scored, and its chromosomes scored so far
+    private int generation = -1;
+    private transient List<IChromosome> scored;
+    private long turnsPlayed;
+    private int survivors;
+
+    // corpus may be null to play seeded games
+    public SuccessiveHalvingFitnessFunction(PieceCorpus corpus, long seed, int startTurns, int maxTurns, int eta) {
+        this.corpus = corpus;
+        this.seed = seed;
+        this.startTurns = startTurns;
+        this.maxTurns = maxTurns;
+        this.eta = eta;
+    }
+
+    // If conf scores with successive halving, start the generation of conf
+    // with the given population, see the class comment. Other configurations
+    // are left alone.
+    public static void scoreTogether(Configuration conf, Population population) {
+        if (conf.getBulkFitnessFunction() instanceof SuccessiveHalvingFitnessFunction) {
+            ((SuccessiveHalvingFitnessFunction) conf.getBulkFitnessFunction())
+                .startGeneration(conf.getGenerationNr(), population);
+        }
+    }
+
+    // JGAP selectors keep copies of the chromosomes, so the population is
+    // matched to the last batch by genes, not identity
+    private void startGeneration(int game, Population population) {
+        boolean together = scored != null;
+        for (IChromosome c : population.getChromosomes()) {
+            together &= c.getFitnessValueDirectly() >= 0 && scored.contains(c);
+        }
+        generation = game;
+        scored = new ArrayList<IChromosome>(population.getChromosomes());
+        if (!together) {
+            score(game);
+        }
+    }
+
+    @Override
+    public void evaluate(Population population) {
+        int game = population.getConfiguration().getGenerationNr();
+        if (scored == null || game != generation) {
+            generation = game;
+            scored = new ArrayList<IChromosome>();
+        }
+        for (IChromosome c : population.getChromosomes()) {
+            if (!containsSame(scored, c)) {
+                scored.add(c);
+            }
+        }
+        score(game);
+    }
+
+    // play the schedule for every chromosome scored this generation
+    private void score(int game) {
+        IChromosome[] chromosomes = scored.toArray(new IChromosome[0]);
+        int n = chromosomes.length;
+        PlayerSkeletonOneLayer[] players = new PlayerSkeletonOneLayer[n];
+        State[] games = new State[n];
+        for (int i = 0; i < n; i++) {
+            players[i] = new PlayerSkeletonOneLayer(Weights.allelesOf(chromosomes[i]));
+            games[i] = new State(source(game));
+        }
+
+        // indices of the chromosomes in the current rung
+        Integer[] rung = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            rung[i] = i;
+        }
+        int size = n;
+        long cap = startTurns;
+        turnsPlayed = 0;
+        while (true) {
+            for (int r = 0; r < size; r++) {
+                play(players[rung[r]], games[rung[r]], cap);
+            }
+            if (cap >= maxTurns) {
+                break;
+            }
+            // promote the best 1/eta to the next cap
+            Arrays.sort(rung, 0, size, (a, b) -> Double.compare(fitness(games[b]), fitness(games[a])));
+            size = (size + eta - 1) / eta;
+            cap = Math.min(cap * eta, maxTurns);
+        }
+
+        survivors = 0;
+        for (int i = 0; i < n; i++) {
+            if (!games[i].lost) {
+                survivors++;
+            }
+            chromosomes[i].setFitnessValue(fitness(games[i]));
+        }
+    }
+
+    // whether the list holds this very chromosome, equal ones aside
+    private static boolean containsSame(List<IChromosome> chromosomes, IChromosome c) {
+        for (IChromosome other : chromosomes) {
+            if (other == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the corpus games in turn, then seeded games
+    private PieceSource source(int game) {
+        if (corpus != null && corpus.size() > 0) {
+            return corpus.source(game % corpus.size());
+        }
+        return PieceSource.seeded(seed + game);
+    }
+
+    private void play(PlayerSkeletonOneLayer player, State s, long cap) {
+        while (!s.lost && s.getTurnNumber() < cap) {
+            s.makeMove(player.pickMove(s, s.legalMoves()));
+            turnsPlayed++;
+        }
+    }
+
+    private static double fitness(State s) {
+        return s.getRowsCleared() + (s.lost ? 0 : SURVIVAL_BONUS);
+    }
+
+    // turns played by the last evaluate, rescoring included
+    public long getTurnsPlayed() {
+        return turnsPlayed;
+    }
+
+    // chromosomes still alive at the end of the last evaluate
+    public int getSurvivors() {
+        return survivors;
+    }
+
+    @Override
+    public String toString() {
+        return turnsPlayed + " turns played, " + survivors + " survivors";
+    }
+}
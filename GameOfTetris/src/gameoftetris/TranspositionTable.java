@@ -0,0 +1,113 @@
+import java.util.Arrays;
+
+/**
+ * Bounded cache from a 64 bit position key to a search value, used by
+ * PlayerSkeleton to avoid expanding the same board twice.
+ *
+ * Open addressing over two primitive arrays, so nothing is boxed or allocated
+ * after construction. A key is looked for in PROBES consecutive slots; when
+ * they are all taken a store replaces the slot the key hashes to. Key 0 marks
+ * an empty slot and is never stored.
+ *
+ * Hits, misses, stores and replacements are counted so the table can be
+ * sized.
+ */
+public class TranspositionTable {
+    // returned by get on a miss
+    public static final double MISS = Double.NaN;
+
+    private static final int PROBES = 4;
+
+    private final long[] keys;
+    private final double[] values;
+    private final int mask;
+
+    private long hits;
+    private long misses;
+    private long stores;
+    private long replacements;
+
+    // table with 2^sizeBits slots
+    public TranspositionTable(int sizeBits) {
+        keys = new long[1 << sizeBits];
+        values = new double[1 << sizeBits];
+        mask = keys.length - 1;
+    }
+
+    // cached value of the key, or MISS
+    public double get(long key) {
+        int slot = index(key);
+        for (int i = 0; i < PROBES; i++) {
+            int s = (slot + i) & mask;
+            if (keys[s] == key) {
+                hits++;
+                return values[s];
+            }
+            if (keys[s] == 0) {
+                break;
+            }
+        }
+        misses++;
+        return MISS;
+    }
+
+    public void put(long key, double value) {
+        if (key == 0) {
+            return;
+        }
+        stores++;
+        int slot = index(key);
+        for (int i = 0; i < PROBES; i++) {
+            int s = (slot + i) & mask;
+            if (keys[s] == key || keys[s] == 0) {
+                keys[s] = key;
+                values[s] = value;
+                return;
+            }
+        }
+        replacements++;
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        hits = misses = stores = replacements = 0;
+    }
+
+    // fold the high half of the key into the slot index
+    private int index(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getStores() {
+        return stores;
+    }
+
+    public long getReplacements() {
+        return replacements;
+    }
+
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d slots, %d hits, %d misses (%.1f%% hit rate), %d stores, %d replacements",
+            capacity(), hits, misses, 100 * hitRate(), stores, replacements);
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.Arrays;
+
+import org.jgap.Gene;
+import org.jgap.IChromosome;
+
+/**
+ * The feature weights of one PlayerSkeleton or PlayerSkeletonOneLayer, in the
+ * order of the alleles of a trainer chromosome. A Weights never changes after
+ * construction, so players with different chromosomes can play at the same
+ * time in one JVM, each reading its own final copy.
+ */
+public final class Weights {
+    // index of each weight in the chromosome
+    public static final int NUM_HOLES = 0;
+    public static final int COMPLETE_LINES = 1;
+    public static final int HEIGHT_VAR = 2;
+    public static final int LOST = 3;
+    public static final int MAX_HEIGHT = 4;
+    public static final int PIT_DEPTH = 5;
+    public static final int MEAN_HEIGHT_DIFF = 6;
+    public static final int SIZE = 7;
+
+    public final double numHoles;
+    public final double completeLines;
+    public final double heightVar;
+    public final double lost;
+    public final double maxHeight;
+    public final double pitDepth;
+    public final double meanHeightDiff;
+
+    public Weights(double[] weights) {
+        if (weights.length != SIZE) {
+            throw new IllegalArgumentException("expected " + SIZE + " weights, got " + weights.length);
+        }
+        numHoles = weights[NUM_HOLES];
+        completeLines = weights[COMPLETE_LINES];
+        heightVar = weights[HEIGHT_VAR];
+        lost = weights[LOST];
+        maxHeight = weights[MAX_HEIGHT];
+        pitDepth = weights[PIT_DEPTH];
+        meanHeightDiff = weights[MEAN_HEIGHT_DIFF];
+    }
+
+    // the alleles of a trainer chromosome, in weight order
+    public static double[] allelesOf(IChromosome chromosome) {
+        Gene[] genes = chromosome.getGenes();
+        double[] weights = new double[genes.length];
+        for (int i = 0; i < genes.length; i++) {
+            weights[i] = (Double) genes[i].getAllele();
+        }
+        return weights;
+    }
+
+    // a copy of the weights in chromosome order
+    public double[] toArray() {
+        return new double[] {numHoles, completeLines, heightVar, lost, maxHeight, pitDepth, meanHeightDiff};
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Weights && Arrays.equals(toArray(), ((Weights) other).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
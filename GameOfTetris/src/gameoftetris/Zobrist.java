@@ -0,0 +1,49 @@
+import java.util.SplittableRandom;
+
+/**
+ * Zobrist keys for board positions. The hash of a board is the XOR of the key
+ * of every filled cell, so placing or removing a cell is a single XOR.
+ * MoveKernel keeps the hash of a board in its stats buffer, split into two
+ * ints.
+ *
+ * The keys come from a fixed seed, so a board has the same hash in every run.
+ */
+public final class Zobrist {
+    public static final int COLS = State.COLS;
+    public static final int ROWS = State.ROWS;
+
+    // key of each cell [row * COLS + col]
+    private static final long[] CELL_KEYS = new long[ROWS * COLS];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5DEECE66DL);
+        for (int i = 0; i < CELL_KEYS.length; i++) {
+            CELL_KEYS[i] = random.nextLong();
+        }
+    }
+
+    private Zobrist() {
+    }
+
+    // combined key of the cells of a row set in mask
+    public static long rowKey(int row, int mask) {
+        long key = 0;
+        int base = row * COLS;
+        while (mask != 0) {
+            key ^= CELL_KEYS[base + Integer.numberOfTrailingZeros(mask)];
+            mask &= mask - 1;
+        }
+        return key;
+    }
+
+    // hash of a whole board
+    public static long hash(int[] rows) {
+        long hash = 0;
+        for (int r = 0; r < ROWS; r++) {
+            if (rows[r] != 0) {
+                hash ^= rowKey(r, rows[r]);
+            }
+        }
+        return hash;
+    }
+}
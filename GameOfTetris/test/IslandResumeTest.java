@@ -0,0 +1,160 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jgap.Chromosome;
+import org.jgap.Configuration;
+import org.jgap.FitnessFunction;
+import org.jgap.Gene;
+import org.jgap.Genotype;
+import org.jgap.IChromosome;
+import org.jgap.Population;
+import org.jgap.RandomGenerator;
+import org.jgap.impl.DefaultConfiguration;
+import org.jgap.impl.DoubleGene;
+import org.jgap.impl.job.SimplePopulationSplitter;
+
+/**
+ * Checks that an island run resumed from a checkpoint goes on as the run that
+ * wrote it: one run evolves, merges its elites, reseeds its islands and
+ * checkpoints as PlayerTrainerMT does, and a second run resumes from that
+ * checkpoint. Both must then hold the same islands, and still do after
+ * evolving further. The fitness is a fixed function of the alleles, so only
+ * the islands and their generators can make the runs differ.
+ *
+ * Exits with status 1 and a message on the first difference. Built and run
+ * from GameOfTetris with
+ *
+ * javac -cp "lib/*" -d test/out src/gameoftetris/*.java test/*.java
+ * java -cp "test/out:lib/*" IslandResumeTest
+ */
+public class IslandResumeTest {
+    private static final int ISLANDS = 3;
+    private static final int ISLAND_SIZE = 10;
+    private static final int GENERATIONS = 10;
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(ISLANDS);
+        Path checkpointFile = Files.createTempFile("islands", ".ckpt");
+        try {
+            // the run that goes on after its checkpoint
+            Configuration rootA = configuration("rootA");
+            Configuration[] confsA = islandConfigurations("A");
+            Population initial = Genotype.randomInitialGenotype(rootA).getPopulation();
+            IslandModel continuing = islandModel(confsA, initial, executor);
+            continuing.evolve(GENERATIONS);
+            Population elites = continuing.mergeElites(rootA, ISLAND_SIZE);
+            continuing.reseed(elites);
+            Checkpoint.of(elites, GENERATIONS, randomGenerators(rootA, confsA)).write(checkpointFile);
+
+            // the run resumed from the checkpoint, as in PlayerTrainerMT.main
+            Configuration rootB = configuration("rootB");
+            Configuration[] confsB = islandConfigurations("B");
+            Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+            Population restored = checkpoint.toPopulation(rootB);
+            checkpoint.restore(randomGenerators(rootB, confsB));
+            IslandModel resumed = islandModel(confsB, restored, executor);
+            resumed.resume(restored, checkpoint.generation);
+
+            check("after resuming", continuing, resumed);
+            continuing.evolve(GENERATIONS);
+            resumed.evolve(GENERATIONS);
+            check("after evolving on", continuing, resumed);
+            System.out.println("resumed islands match the continuing run");
+        } finally {
+            executor.shutdown();
+            Files.deleteIfExists(checkpointFile);
+        }
+    }
+
+    private static IslandModel islandModel(Configuration[] confs, Population population, ExecutorService executor)
+        throws Exception {
+        return new IslandModel(confs, new SimplePopulationSplitter(ISLANDS).split(population), executor, 5, 2,
+            IslandModel.Topology.RING);
+    }
+
+    // islands of both runs hold the same alleles and fitness, in order, at
+    // the same generation
+    private static void check(String when, IslandModel expected, IslandModel actual) {
+        for (int i = 0; i < ISLANDS; i++) {
+            Genotype a = expected.getIslands()[i];
+            Genotype b = actual.getIslands()[i];
+            if (a.getConfiguration().getGenerationNr() != b.getConfiguration().getGenerationNr()) {
+                fail(when + ": island " + i + " is at generation " + b.getConfiguration().getGenerationNr()
+                    + ", expected " + a.getConfiguration().getGenerationNr());
+            }
+            if (!contents(a.getPopulation()).equals(contents(b.getPopulation()))) {
+                fail(when + ": island " + i + " holds " + contents(b.getPopulation()) + ", expected "
+                    + contents(a.getPopulation()));
+            }
+        }
+    }
+
+    private static List<List<Double>> contents(Population population) {
+        List<List<Double>> contents = new ArrayList<List<Double>>();
+        for (IChromosome c : population.getChromosomes()) {
+            List<Double> values = new ArrayList<Double>();
+            for (double allele : Weights.allelesOf(c)) {
+                values.add(allele);
+            }
+            values.add(c.getFitnessValueDirectly());
+            contents.add(values);
+        }
+        return contents;
+    }
+
+    private static void fail(String message) {
+        System.err.println(message);
+        System.exit(1);
+    }
+
+    private static Configuration[] islandConfigurations(String run) throws Exception {
+        Configuration[] confs = new Configuration[ISLANDS];
+        for (int i = 0; i < ISLANDS; i++) {
+            confs[i] = configuration(run + i);
+            confs[i].setPopulationSize(ISLAND_SIZE);
+        }
+        return confs;
+    }
+
+    // a seeded configuration of PlayerTrainerMT's chromosomes, fitness a
+    // fixed function of the alleles
+    private static Configuration configuration(String id) throws Exception {
+        Configuration.reset(id);
+        Configuration conf = new DefaultConfiguration(id, id);
+        ((Random) conf.getRandomGenerator()).setSeed(1);
+        Gene[] genes = new Gene[7];
+        for (int i = 0; i < genes.length; i++) {
+            genes[i] = new DoubleGene(conf, 0, 2);
+        }
+        conf.setSampleChromosome(new Chromosome(conf, genes));
+        conf.setPopulationSize(ISLANDS * ISLAND_SIZE);
+        conf.setFitnessFunction(new FitnessFunction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected double evaluate(IChromosome c) {
+                double[] alleles = Weights.allelesOf(c);
+                double fitness = 0;
+                for (int i = 0; i < alleles.length; i++) {
+                    fitness += (i + 1) * alleles[i] * (2 - alleles[i]);
+                }
+                return fitness;
+            }
+        });
+        return conf;
+    }
+
+    private static RandomGenerator[] randomGenerators(Configuration root, Configuration[] confs) {
+        RandomGenerator[] randoms = new RandomGenerator[confs.length + 1];
+        randoms[0] = root.getRandomGenerator();
+        for (int i = 0; i < confs.length; i++) {
+            randoms[i + 1] = confs[i].getRandomGenerator();
+        }
+        return randoms;
+    }
+}